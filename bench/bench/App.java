@@ -0,0 +1,80 @@
+package bench;
+
+import framework.PointStore;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Handles on the application classes that live in the default package.
+ *
+ * JMH will not generate benchmarks in the default package and Java cannot
+ * import from it, so the benchmarks reach CatmullRomSpline and Controller
+ * through these.  The handles are static final, so the JIT inlines through
+ * them and they cost nothing in the measurements.
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    // new CatmullRomSpline(float[] controlPoints, int numPoints)
+    static final MethodHandle NEW_CATMULL_FROM_POINTS;
+    // new CatmullRomSpline(String filename, int numPoints)
+    static final MethodHandle NEW_CATMULL_FROM_FILE;
+    // catmull.evaluateDifferently(float s, float[] result, int offset)
+    static final MethodHandle EVALUATE_DIFFERENTLY;
+    // catmull.calculateInterpolation(int n)
+    static final MethodHandle CALCULATE_INTERPOLATION;
+    // catmull.numSegments()
+    static final MethodHandle CATMULL_SEGMENTS;
+    // new Controller(from, to, up, String path)
+    static final MethodHandle NEW_CONTROLLER;
+    // controller.spline_path = t
+    static final MethodHandle SET_SPLINE_PATH;
+    // controller.updateSplineVars(), following the Bezier track
+    static final MethodHandle UPDATE_SPLINE_VARS;
+    // controller.updateCatmullVars(), following the Catmull-Rom track
+    static final MethodHandle UPDATE_CATMULL_VARS;
+    // controller.sPosX, to consume a result
+    static final MethodHandle GET_POSITION_X;
+
+    static {
+        try {
+            Class<?> catmull = Class.forName("CatmullRomSpline");
+            Class<?> controller = Class.forName("Controller");
+            MethodType generic = MethodType.methodType(Object.class, float[].class, int.class);
+            NEW_CATMULL_FROM_POINTS = LOOKUP.findConstructor(catmull, MethodType.methodType(void.class, float[].class, int.class))
+                                            .asType(generic);
+            NEW_CATMULL_FROM_FILE = LOOKUP.findConstructor(catmull, MethodType.methodType(void.class, String.class, int.class))
+                                          .asType(MethodType.methodType(Object.class, String.class, int.class));
+            EVALUATE_DIFFERENTLY = LOOKUP.findVirtual(catmull, "evaluateDifferently",
+                                                      MethodType.methodType(void.class, float.class, float[].class, int.class))
+                                         .asType(MethodType.methodType(void.class, Object.class, float.class, float[].class, int.class));
+            CALCULATE_INTERPOLATION = LOOKUP.findVirtual(catmull, "calculateInterpolation", MethodType.methodType(PointStore.class, int.class))
+                                            .asType(MethodType.methodType(PointStore.class, Object.class, int.class));
+            CATMULL_SEGMENTS = LOOKUP.findVirtual(catmull, "numSegments", MethodType.methodType(int.class))
+                                     .asType(MethodType.methodType(int.class, Object.class));
+            NEW_CONTROLLER = LOOKUP.findConstructor(controller, MethodType.methodType(void.class,
+                                                    float.class, float.class, float.class, float.class, float.class, float.class,
+                                                    float.class, float.class, float.class, String.class))
+                                   .asType(MethodType.methodType(Object.class,
+                                           float.class, float.class, float.class, float.class, float.class, float.class,
+                                           float.class, float.class, float.class, String.class));
+            SET_SPLINE_PATH = LOOKUP.findSetter(controller, "spline_path", float.class)
+                                    .asType(MethodType.methodType(void.class, Object.class, float.class));
+            UPDATE_SPLINE_VARS = LOOKUP.findVirtual(controller, "updateSplineVars", MethodType.methodType(void.class))
+                                       .asType(MethodType.methodType(void.class, Object.class));
+            UPDATE_CATMULL_VARS = LOOKUP.findVirtual(controller, "updateCatmullVars", MethodType.methodType(void.class))
+                                        .asType(MethodType.methodType(void.class, Object.class));
+            GET_POSITION_X = LOOKUP.findGetter(controller, "sPosX", float.class)
+                                   .asType(MethodType.methodType(float.class, Object.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+
+    private App () {
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import framework.PointStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Evaluating points along the Catmull-Rom track, and interpolating the
+ * whole track through its control points.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class CatmullRomBenchmark {
+    // fraction of the track moved between calls, the golden ratio so calls do not repeat
+    private static final double STRIDE = 0.6180339887;
+    // interpolated points per segment, as the application uses
+    private static final int POINTS_PER_SEGMENT = 3;
+
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private Object myTrack;
+    private float myT;
+    private float myStride;
+    private float mySegments;
+    private float[] myResult = new float[3];
+
+
+    @Setup
+    public void setUp () throws Throwable {
+        myTrack = (Object)App.NEW_CATMULL_FROM_POINTS.invokeExact(Tracks.randomWalk(points, 42), 0);
+        mySegments = (int)App.CATMULL_SEGMENTS.invokeExact(myTrack);
+        myStride = (float)(mySegments * STRIDE);
+        // build the coefficients outside of the measurement
+        App.EVALUATE_DIFFERENTLY.invokeExact(myTrack, 0f, myResult, 0);
+    }
+
+    // the next parameter to evaluate at
+    private float next () {
+        myT += myStride;
+        if (myT >= mySegments) {
+            myT -= mySegments;
+        }
+        return myT;
+    }
+
+    @Benchmark
+    public float[] evaluateDifferently () throws Throwable {
+        App.EVALUATE_DIFFERENTLY.invokeExact(myTrack, next(), myResult, 0);
+        return myResult;
+    }
+
+    @Benchmark
+    public PointStore calculateInterpolation () throws Throwable {
+        return (PointStore)App.CALCULATE_INTERPOLATION.invokeExact(myTrack, POINTS_PER_SEGMENT);
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Updating the camera's position and frame along each track, the work the
+ * controller does every frame while following a track.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ControllerBenchmark {
+    // parameter moved between calls, a little under a segment like a moving camera
+    private static final float STEP = 0.37f;
+
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private Object myController;
+    private float myT;
+    private float mySegments;
+
+
+    @Setup
+    public void setUp () throws Throwable {
+        Path file = Tracks.writeTrack(Tracks.randomWalk(points, 42));
+        try {
+            myController = (Object)App.NEW_CONTROLLER.invokeExact(0f, 0f, 0f, 0f, 0f, 1f, 0f, 1f, 0f, file.toString());
+        }
+        finally {
+            Tracks.delete(file);
+        }
+        // the Bezier track has the fewest segments of the two
+        mySegments = points - 3;
+        // build the frames outside of the measurement
+        App.UPDATE_SPLINE_VARS.invokeExact(myController);
+        App.UPDATE_CATMULL_VARS.invokeExact(myController);
+    }
+
+    // move the controller along to the next parameter
+    private void advance () throws Throwable {
+        myT += STEP;
+        if (myT >= mySegments) {
+            myT -= mySegments;
+        }
+        App.SET_SPLINE_PATH.invokeExact(myController, myT);
+    }
+
+    @Benchmark
+    public float updateSplineVars () throws Throwable {
+        advance();
+        App.UPDATE_SPLINE_VARS.invokeExact(myController);
+        return (float)App.GET_POSITION_X.invokeExact(myController);
+    }
+
+    @Benchmark
+    public float updateCatmullVars () throws Throwable {
+        advance();
+        App.UPDATE_CATMULL_VARS.invokeExact(myController);
+        return (float)App.GET_POSITION_X.invokeExact(myController);
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import framework.TrackGenerator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Generating random tracks of the given number of control points, all at
+ * once and one point at a time, as the splines fill out short tracks.  Both
+ * generate the same points from the same seed, so only the cost differs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+    private static final long SEED = 42;
+
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private float[] myWalk;
+
+
+    @Setup
+    public void setUp () {
+        myWalk = new float[3 * points];
+    }
+
+    @Benchmark
+    public float[] generate () {
+        new TrackGenerator(SEED).generate(myWalk, -1, 0, myWalk, 3, points - 1);
+        return myWalk;
+    }
+
+    @Benchmark
+    public float[] generateEach () {
+        TrackGenerator generator = new TrackGenerator(SEED);
+        for (int i = 1; i < points; i++) {
+            generator.generate(myWalk, 3 * Math.max(0, i - 2), 3 * (i - 1), myWalk, 3 * i, 1);
+        }
+        return myWalk;
+    }
+}
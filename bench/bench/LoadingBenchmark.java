@@ -0,0 +1,76 @@
+package bench;
+
+import framework.OBJModel;
+import framework.Spline;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Reading tracks and models from files: each track constructor reading
+ * a text and a binary file of the given number of control points, and an
+ * OBJ model of a grid with that many vertices.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoadingBenchmark {
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private Path myTrackFile;
+    private Path myBinaryTrackFile;
+    private Path myModelFile;
+
+
+    @Setup(Level.Trial)
+    public void setUp () {
+        float[] walk = Tracks.randomWalk(points, 42);
+        myTrackFile = Tracks.writeTrack(walk);
+        myBinaryTrackFile = Tracks.writeBinaryTrack(walk);
+        myModelFile = Tracks.writeModel(points);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown () {
+        Tracks.delete(myTrackFile);
+        Tracks.delete(myBinaryTrackFile);
+        Tracks.delete(myModelFile);
+    }
+
+    @Benchmark
+    public Spline loadSpline () {
+        return new Spline(myTrackFile.toString(), 0);
+    }
+
+    @Benchmark
+    public Spline loadSplineBinary () {
+        return new Spline(myBinaryTrackFile.toString(), 0);
+    }
+
+    @Benchmark
+    public Object loadCatmullRomSpline () throws Throwable {
+        return (Object)App.NEW_CATMULL_FROM_FILE.invokeExact(myTrackFile.toString(), 0);
+    }
+
+    @Benchmark
+    public OBJModel loadModel () {
+        return new OBJModel(myModelFile.toString());
+    }
+}
@@ -0,0 +1,99 @@
+package bench;
+
+import framework.ImprovedNoise;
+import framework.PerlinNoise;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Sampling Perlin noise, one sample at a time and over a square grid of
+ * the given number of samples, as terrain is built, with ImprovedNoise and
+ * with PerlinNoise in doubles and floats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoiseBenchmark {
+    // distance between samples, less than one so neighbours share lattice cells
+    private static final double SPACING = 0.0731;
+    private static final long SEED = 42;
+    private static final int OCTAVES = 5;
+
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private int mySide;
+    private double myX;
+    private double[] myGrid;
+    private float[] myFloatGrid;
+    private PerlinNoise myNoise;
+
+
+    @Setup
+    public void setUp () {
+        mySide = (int)Math.ceil(Math.sqrt(points));
+        myGrid = new double[mySide * mySide];
+        myFloatGrid = new float[mySide * mySide];
+        myNoise = new PerlinNoise(SEED);
+    }
+
+    @Benchmark
+    public double noise () {
+        myX += SPACING;
+        return ImprovedNoise.noise(myX, 0.5 * myX, 0.25);
+    }
+
+    @Benchmark
+    public double[] noiseGrid () {
+        for (int j = 0; j < mySide; j++) {
+            for (int i = 0; i < mySide; i++) {
+                myGrid[j * mySide + i] = ImprovedNoise.noise(i * SPACING, j * SPACING, 0.25);
+            }
+        }
+        return myGrid;
+    }
+
+    @Benchmark
+    public double perlinNoise () {
+        myX += SPACING;
+        return myNoise.noise(myX, 0.5 * myX, 0.25);
+    }
+
+    @Benchmark
+    public float perlinNoiseFloat2D () {
+        myX += SPACING;
+        return myNoise.noise((float)myX, (float)(0.5 * myX));
+    }
+
+    @Benchmark
+    public double[] perlinGrid () {
+        myNoise.fillNoise(myGrid, mySide, mySide, 0, 0, SPACING);
+        return myGrid;
+    }
+
+    @Benchmark
+    public float[] perlinFloatGrid () {
+        myNoise.fillNoise(myFloatGrid, mySide, mySide, 0, 0, (float)SPACING);
+        return myFloatGrid;
+    }
+
+    @Benchmark
+    public float[] perlinFbmGrid () {
+        myNoise.fillFbm(myFloatGrid, mySide, mySide, 0, 0, (float)SPACING, OCTAVES, 2, 0.5f);
+        return myFloatGrid;
+    }
+}
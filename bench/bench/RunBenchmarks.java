@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the benchmarks with the allocation profiler always on, so every
+ * result reports bytes allocated per operation next to its throughput.
+ * Takes the same arguments as org.openjdk.jmh.Main, for example a pattern
+ * choosing the benchmarks to run or "-p points=100" to run only one size.
+ */
+public class RunBenchmarks {
+    public static void main (String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import framework.Spline;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Evaluating points and binormals along the Bezier track, both the forms
+ * that return a new array and the ones that write into the caller's.
+ *
+ * Each call moves the parameter most of the way around the track, so long
+ * tracks are measured with their coefficients mostly out of cache, as when
+ * several things on screen follow different parts of the track.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class SplineBenchmark {
+    // fraction of the track moved between calls, the golden ratio so calls do not repeat
+    private static final double STRIDE = 0.6180339887;
+
+    @Param({ "100", "10000", "1000000" })
+    public int points;
+
+    private Spline mySpline;
+    private float myT;
+    private float myStride;
+    private float mySegments;
+    private float[] myResult = new float[3];
+
+
+    @Setup
+    public void setUp () {
+        mySpline = new Spline(Tracks.randomWalk(points, 42));
+        mySegments = mySpline.numSegments();
+        myStride = (float)(mySegments * STRIDE);
+        // build the coefficients outside of the measurement
+        mySpline.evaluateAt(0, myResult, 0);
+    }
+
+    // the next parameter to evaluate at
+    private float next () {
+        myT += myStride;
+        if (myT >= mySegments) {
+            myT -= mySegments;
+        }
+        return myT;
+    }
+
+    @Benchmark
+    public float[] evaluateAt () {
+        return mySpline.evaluateAt(next());
+    }
+
+    @Benchmark
+    public float[] evaluateAtInto () {
+        mySpline.evaluateAt(next(), myResult, 0);
+        return myResult;
+    }
+
+    @Benchmark
+    public float[] evaluateBinormal () {
+        return mySpline.evaluateBinormal(next());
+    }
+
+    @Benchmark
+    public float[] evaluateBinormalInto () {
+        mySpline.evaluateBinormal(next(), myResult, 0);
+        return myResult;
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import framework.PointStore;
+import framework.TrackFile;
+import framework.TrackGenerator;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Makes the control points and files the benchmarks run on, the same ones
+ * for every run so results can be compared between runs.
+ */
+final class Tracks {
+    private Tracks () {
+    }
+
+    /**
+     * Returns count control points as packed x, y, z triples, a random walk
+     * from the origin that never turns back on itself and stays within a box
+     * around it.
+     */
+    static float[] randomWalk (int count, long seed) {
+        float[] result = new float[3 * count];
+        if (count > 1) {
+            new TrackGenerator(seed).generate(result, -1, 0, result, 3, count - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the given control points to a temporary track file, one point
+     * per line after a comment line, the format the track constructors read.
+     */
+    static Path writeTrack (float[] points) {
+        try {
+            Path file = Files.createTempFile("track", ".txt");
+            try (BufferedWriter output = Files.newBufferedWriter(file)) {
+                output.write("# " + (points.length / 3) + " generated control points");
+                output.newLine();
+                for (int k = 0; k < points.length; k += 3) {
+                    output.write(points[k] + " " + points[k + 1] + " " + points[k + 2]);
+                    output.newLine();
+                }
+            }
+            return file;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the given control points to a temporary binary track file.
+     */
+    static Path writeBinaryTrack (float[] points) {
+        try {
+            Path file = Files.createTempFile("track", TrackFile.EXTENSION);
+            TrackFile.write(file.toString(), new PointStore(points.clone(), points.length / 3));
+            return file;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a temporary OBJ file of a bumpy square grid with at least the
+     * given number of vertices, with texture coordinates, normals and
+     * triangular faces but no materials, so it loads without OpenGL.
+     */
+    static Path writeModel (int vertices) {
+        int side = Math.max(2, (int)Math.ceil(Math.sqrt(vertices)));
+        try {
+            Path file = Files.createTempFile("model", ".obj");
+            try (BufferedWriter output = Files.newBufferedWriter(file)) {
+                for (int j = 0; j < side; j++) {
+                    for (int i = 0; i < side; i++) {
+                        float u = i / (float)(side - 1);
+                        float v = j / (float)(side - 1);
+                        output.write("v " + u + " " + (float)(Math.sin(7 * u) * Math.cos(5 * v) / 10) + " " + v);
+                        output.newLine();
+                        output.write("vt " + u + " " + v);
+                        output.newLine();
+                        output.write("vn 0 1 0");
+                        output.newLine();
+                    }
+                }
+                for (int j = 0; j < side - 1; j++) {
+                    for (int i = 0; i < side - 1; i++) {
+                        int a = j * side + i + 1;
+                        int b = a + 1;
+                        int c = a + side;
+                        int d = c + 1;
+                        output.write("f " + a + "/" + a + "/" + a + " " + c + "/" + c + "/" + c + " " + b + "/" + b + "/" + b);
+                        output.newLine();
+                        output.write("f " + b + "/" + b + "/" + b + " " + c + "/" + c + "/" + c + " " + d + "/" + d + "/" + d);
+                        output.newLine();
+                    }
+                }
+            }
+            return file;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes a file written by one of the methods above.
+     */
+    static void delete (Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import framework.PointStore;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the points of a Catmull-Rom curve through a list of control points.
+ *
+ * Knots are spaced by the true 3D distance between control points raised to
+ * alpha: 0 gives the uniform curve, 0.5 the centripetal curve (which has no
+ * cusps or self intersections within a segment), and 1 the chordal curve.
+ * The knot intervals and their reciprocals are computed once per segment and
+ * folded into a cubic Hermite form of the Barry-Goldman pyramid, so each
+ * sample evaluates x, y, and z together with a handful of multiply-adds.
+ *
+ * Every segment produces the same number of points, so each one's place in
+ * the output is known in advance and long curves are built in parallel with
+ * each thread writing its own stretch of one preallocated array.
+ */
+public class CatmullRomBuilder {
+    public static final float UNIFORM = 0f;
+    public static final float CENTRIPETAL = 0.5f;
+    public static final float CHORDAL = 1f;
+    // knot intervals shorter than this are treated as this long, so repeated points do not divide by zero
+    private static final double MIN_INTERVAL = 1e-6;
+    // segments built before the work is split across threads
+    private static final int PARALLEL_THRESHOLD = 4096;
+    // segments built by each parallel task
+    private static final int GRAIN = 1024;
+
+    private float myAlpha;
+    private int myPointsPerSegment;
+
+
+    /**
+     * Create a builder producing the given number of points per segment,
+     * counting both of its ends, with knots spaced using alpha.
+     */
+    public CatmullRomBuilder (float alpha, int pointsPerSegment) {
+        myAlpha = alpha;
+        myPointsPerSegment = Math.max(2, pointsPerSegment);
+    }
+
+    /**
+     * Returns the number of segments curved through the given number of control points.
+     */
+    public int numSegments (int numControlPoints) {
+        return Math.max(0, numControlPoints - 3);
+    }
+
+    /**
+     * Returns the number of points built through the given number of control
+     * points, sharing the points where segments meet.
+     */
+    public int numPoints (int numControlPoints) {
+        int segments = numSegments(numControlPoints);
+        return (segments == 0) ? 0 : segments * (myPointsPerSegment - 1) + 1;
+    }
+
+    /**
+     * Returns the curve's points through the given control points.
+     */
+    public PointStore build (PointStore controlPoints) {
+        int count = numPoints(controlPoints.size());
+        float[] packed = new float[3 * count];
+        build(controlPoints, packed, 0);
+        return new PointStore(packed, count);
+    }
+
+    /**
+     * Writes the curve's points through the given control points into result
+     * as packed x, y, z triples starting at offset.
+     */
+    public void build (PointStore controlPoints, float[] result, int offset) {
+        int segments = numSegments(controlPoints.size());
+        // read the coordinates once here, since a store backed by a file copies them on each read
+        float[] c = controlPoints.coordinates();
+        if (segments >= PARALLEL_THRESHOLD) {
+            new BuildTask(c, 0, segments, result, offset).invoke();
+        }
+        else {
+            buildSegments(c, 0, segments, result, offset);
+        }
+    }
+
+    /**
+     * Writes the points of segments [first .. first+count) into result starting
+     * at offset.  The first segment writes its starting point and every segment
+     * writes the points after it, so consecutive calls can fill one array.
+     */
+    public void buildSegments (PointStore controlPoints, int first, int count, float[] result, int offset) {
+        if (count > 0 && first + count + 3 > controlPoints.size()) {
+            throw new IndexOutOfBoundsException("segments " + first + " to " + (first + count) +
+                                                " of " + numSegments(controlPoints.size()));
+        }
+        buildSegments(controlPoints.coordinates(), first, count, result, offset);
+    }
+
+    // write the points of segments [first .. first+count) of the control
+    // points packed in c into result starting at offset
+    private void buildSegments (float[] c, int first, int count, float[] result, int offset) {
+        int k = offset;
+        if (count > 0) {
+            int start = 3 * (first + 1);
+            result[k++] = c[start];
+            result[k++] = c[start + 1];
+            result[k++] = c[start + 2];
+        }
+        for (int i = first; i < first + count; i++) {
+            k = buildSegment(c, 3 * i, result, k);
+        }
+    }
+
+    // write the points after p1 of the segment from p1 to p2, whose four
+    // control points are packed in c starting at p0, returning the next free index
+    private int buildSegment (float[] c, int p0, float[] result, int k) {
+        int p1 = p0 + 3;
+        int p2 = p0 + 6;
+        int p3 = p0 + 9;
+        // knot intervals and the reciprocals of every span the pyramid divides by
+        double d01 = knotInterval(c, p0, p1);
+        double d12 = knotInterval(c, p1, p2);
+        double d23 = knotInterval(c, p2, p3);
+        double r01 = 1 / d01;
+        double r12 = 1 / d12;
+        double r23 = 1 / d23;
+        double r02 = 1 / (d01 + d12);
+        double r13 = 1 / (d12 + d23);
+        int steps = myPointsPerSegment - 1;
+        double du = 1.0 / steps;
+        for (int dim = 0; dim < 3; dim++) {
+            // tangents at p1 and p2 of the Barry-Goldman curve, scaled to the middle interval
+            float c0 = c[p0 + dim], c1 = c[p1 + dim], c2 = c[p2 + dim], c3 = c[p3 + dim];
+            double m1 = d12 * ((c1 - c0) * r01 - (c2 - c0) * r02 + (c2 - c1) * r12);
+            double m2 = d12 * ((c2 - c1) * r12 - (c3 - c1) * r13 + (c3 - c2) * r23);
+            double delta = c2 - c1;
+            // the cubic Hermite curve between p1 and p2 in the power basis
+            double a = -2 * delta + m1 + m2;
+            double b = 3 * delta - 2 * m1 - m2;
+            double d = c1;
+            for (int i = 1; i < steps; i++) {
+                double u = i * du;
+                result[k + 3 * (i - 1) + dim] = (float)(((a * u + b) * u + m1) * u + d);
+            }
+        }
+        k += 3 * (steps - 1);
+        // end exactly on the control point
+        result[k++] = c[p2];
+        result[k++] = c[p2 + 1];
+        result[k++] = c[p2 + 2];
+        return k;
+    }
+
+    // distance between the points packed in c at a and b raised to alpha
+    private double knotInterval (float[] c, int a, int b) {
+        double dx = c[b] - c[a];
+        double dy = c[b + 1] - c[a + 1];
+        double dz = c[b + 2] - c[a + 2];
+        double squared = dx * dx + dy * dy + dz * dz;
+        double interval;
+        if (myAlpha == CENTRIPETAL) {
+            interval = Math.sqrt(Math.sqrt(squared));
+        }
+        else if (myAlpha == CHORDAL) {
+            interval = Math.sqrt(squared);
+        }
+        else if (myAlpha == UNIFORM) {
+            interval = 1;
+        }
+        else {
+            interval = Math.pow(squared, myAlpha / 2);
+        }
+        return Math.max(interval, MIN_INTERVAL);
+    }
+
+    // builds a range of segments, splitting it across threads when long; the
+    // point where two ranges meet is written by both, with the same value
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] myControlPoints;
+        private final int myFirst;
+        private final int myCount;
+        private final float[] myResult;
+        private final int myOffset;
+
+        BuildTask (float[] controlPoints, int first, int count, float[] result, int offset) {
+            myControlPoints = controlPoints;
+            myFirst = first;
+            myCount = count;
+            myResult = result;
+            myOffset = offset;
+        }
+
+        @Override
+        protected void compute () {
+            if (myCount <= GRAIN) {
+                buildSegments(myControlPoints, myFirst, myCount, myResult, myOffset);
+                return;
+            }
+            int half = myCount / 2;
+            int stride = 3 * (myPointsPerSegment - 1);
+            invokeAll(new BuildTask(myControlPoints, myFirst, half, myResult, myOffset),
+                      new BuildTask(myControlPoints, myFirst + half, myCount - half, myResult, myOffset + half * stride));
+        }
+    }
+}
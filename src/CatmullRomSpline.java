@@ -1,8 +1,20 @@
 import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.util.gl2.GLUT;
+import framework.AdaptiveTessellator;
+import framework.ArcLengthTable;
+import framework.CubicSegments;
+import framework.Curve;
+import framework.Frame;
+import framework.PointStore;
+import framework.Ribbon;
+import framework.RotationMinimizingFrames;
+import framework.SegmentTree;
+import framework.Tessellation;
+import framework.TrackCache;
+import framework.TrackFile;
+import framework.TrackGenerator;
+import framework.TrackLoader;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.nio.FloatBuffer;
 import java.util.*;
 
@@ -15,14 +27,44 @@ import javax.media.opengl.GL2;
  * @author Robert C. Duvall
  */
 
-public class CatmullRomSpline implements Iterable<float[]> {
+public class CatmullRomSpline implements Iterable<float[]>, Curve {
 
     private float[] currentBinormal = new float[]{1f, 0f, 0f};
     private float[] currentNormal = new float[]{0f, 1f, 0f};
     private float[] currentTangent = new float[]{1f, 1f, 1f};
-    private List<float[]> interpolatedPoints = new ArrayList<>();
-    private List<float[]> myControlPoints = new ArrayList<>();
+    private PointStore interpolatedPoints = new PointStore();
+    private PointStore myControlPoints = new PointStore();
     private ArrayList<float[]> pallet = new ArrayList<>();
+    private TrackGenerator myGenerator = new TrackGenerator(TrackGenerator.DEFAULT_SEED);
+    private float myAlpha = CatmullRomBuilder.CENTRIPETAL;
+    private int myPointsPerSegment;
+    // reused between draws so drawing does not allocate per frame
+    private float[] myRibbonPositions = new float[0];
+    private float[] myRibbonBinormals = new float[0];
+    // staging space for evaluating batches into buffers
+    private float[][] myBatchStaging;
+    // number of results staged at a time when evaluating into buffers
+    private static final int BATCH_SIZE = 256;
+    // interpolated points per segment, counting the points shared where segments meet
+    private static final int POINTS_PER_SEGMENT = 3;
+    // power basis coefficients of each interpolated segment, see coefficients()
+    private float[] myCoefficients = new float[0];
+    private int myValidSegments;
+    // built on first use from the coefficients, then updated from the first
+    // segment changed since, so appending points only extends them
+    private ArcLengthTable myArcLengths;
+    private int myArcLengthsChangedFrom;
+    private RotationMinimizingFrames myFrames;
+    private int myFramesChangedFrom;
+    private int myFrameDensity = RotationMinimizingFrames.DEFAULT_SAMPLES_PER_SEGMENT;
+    private SegmentTree mySegmentTree;
+    private int mySegmentTreeChangedFrom;
+    private Frame myRoadFrame = new Frame();
+    private AdaptiveTessellator myTessellator;
+    private Tessellation myTessellation;
+    private int myTessellationChangedFrom;
+    private Ribbon myRibbon = new Ribbon(.2f, new float[] { 1, 0, 1 }, new float[] { 0, 0, 1 });
+    private int myRibbonChangedFrom;
 
 
     /**
@@ -33,35 +75,89 @@ public class CatmullRomSpline implements Iterable<float[]> {
         for (int k = 0; k < controlPoints.length; k += 3) {
             addPoint(controlPoints[k], controlPoints[k+1], controlPoints[k+2]);
         }
-        init(numPoints, 3);
+        init(numPoints, POINTS_PER_SEGMENT);
     }
 
     /**
-     * Create curve from the control points listed in the given file.
+     * Create curve through a copy of the given control points.
+     */
+    public CatmullRomSpline (PointStore controlPoints, int numPoints) {
+        myControlPoints = new PointStore(controlPoints);
+        init(numPoints, POINTS_PER_SEGMENT);
+    }
+
+    /**
+     * Create curve from the control points listed in the given file, either
+     * a text file or a binary track file.
+     *
+     * @throws framework.TrackException if the file cannot be read or is malformed
      */
-    @SuppressWarnings("resource")
     public CatmullRomSpline (String filename, int numPoints) {
-        try {
-            Scanner input = new Scanner(new File(filename));
-            input.nextLine();  // read starting comment
-            while (input.hasNextLine()) {
-                Scanner line = new Scanner(input.nextLine());
-                addPoint(line.nextFloat(), line.nextFloat(), line.nextFloat());
-            }
-            input.close();
-        } catch (FileNotFoundException e) {
-            // BUGBUG: not the best way to handle this error
-            e.printStackTrace();
-            System.exit(1);
+        myControlPoints = TrackFile.readPoints(filename);
+        init(numPoints, POINTS_PER_SEGMENT);
+    }
+
+    // restore a curve and everything built from it from the cache
+    private CatmullRomSpline (TrackCache.Entry entry, float tolerance) {
+        myControlPoints = entry.controlPoints();
+        interpolatedPoints = entry.curvePoints();
+        myPointsPerSegment = POINTS_PER_SEGMENT;
+        initDrawing();
+        coefficients();
+        myArcLengths = entry.arcLengths(this);
+        myFrames = entry.frames(this);
+        myTessellator = new AdaptiveTessellator(tolerance);
+        myTessellation = entry.tessellation();
+        entry.restoreRibbon(myRibbon);
+        myArcLengthsChangedFrom = numSegments();
+        myFramesChangedFrom = numSegments();
+        myTessellationChangedFrom = numSegments();
+        myRibbonChangedFrom = numSegments();
+    }
+
+    /**
+     * Returns the curve through the control points listed in the given file,
+     * like the file constructor, with its arc lengths, frames, and ribbon
+     * drawn to within the given tolerance already built.  If the cache holds
+     * a curve built from the same file with the same parameters it is read
+     * from there, taking only as long as checking it; otherwise the curve is
+     * built, reporting progress through the file, and stored in the cache.
+     * Control points added to fill out a short track are stored with it, so
+     * they stay the same from run to run.
+     *
+     * @throws framework.TrackException if the file cannot be read or is malformed
+     */
+    public static CatmullRomSpline load (String filename, int numPoints, float tolerance,
+                                         TrackCache cache, TrackLoader.Progress progress) {
+        String key = cache.key(filename, "catmull-rom", numPoints, POINTS_PER_SEGMENT, CatmullRomBuilder.CENTRIPETAL,
+                               tolerance, RotationMinimizingFrames.DEFAULT_SAMPLES_PER_SEGMENT);
+        TrackCache.Entry entry = cache.load(key);
+        if (entry != null) {
+            return new CatmullRomSpline(entry, tolerance);
         }
-        init(numPoints, 3);
+        CatmullRomSpline result = new CatmullRomSpline(TrackFile.readPoints(filename, progress), numPoints);
+        Ribbon ribbon = result.ribbon(tolerance);
+        cache.store(key, result.myControlPoints, result.interpolatedPoints, result.arcLengths(),
+                    result.rotationMinimizingFrames(), result.myTessellation, ribbon);
+        return result;
     }
 
-    public ArrayList<float[]> getOriginalPoints() {
-        return (ArrayList<float[]>) myControlPoints;
+    /**
+     * Returns a copy of the control points, so changing it does not change this curve.
+     */
+    public PointStore getOriginalPoints() {
+        return new PointStore(myControlPoints);
     }
 
     private void init(int pts, int pps) {
+        initDrawing();
+        myGenerator.generate(myControlPoints, pts - numControlPoints());
+        myPointsPerSegment = pps;
+        reinterpolate();
+    }
+
+    // the colors and starting frame used when drawing
+    private void initDrawing() {
         pallet.add(new float[]{1, 0, 0});
         pallet.add(new float[]{1, 0, 1});
         pallet.add(new float[]{0, 1, 0});
@@ -70,93 +166,68 @@ public class CatmullRomSpline implements Iterable<float[]> {
         currentBinormal = new float[]{1f, 0f, 0f};
         currentNormal = new float[]{0f, 1f, 0f};
         currentTangent = new float[]{0f, 0f, 0f};
-        while(numControlPoints() < pts) {
-            makeRandomPoint();
-        }
-        interpolatedPoints = calculateInterpolation(pps);
-        for(int i = 0; i < interpolatedPoints.size(); i++) {
-        }
     }
 
-    public List<float[]> calculateInterpolation(int n) {
-        List<float[]> result = new ArrayList<>();
-        // When looping, remember that each cycle requires 4 points, starting
-        // with i and ending with i+3.  So we don't loop through all the points.
-        for (int i = 0; i < myControlPoints.size() - 3; i++) {
-            // Actually calculate the Catmull-Rom curve for one segment.
-            List<float[]> points = interpolate(myControlPoints, i, n);
-            // Since the middle points are added twice, once for each bordering
-            // segment, we only add the 0 index result point for the first
-            // segment.  Otherwise we will have duplicate points.
-            if (result.size() > 0) {
-                points.remove(0);
-            }
-            // Add the coordinates for the segment to the result list.
-            result.addAll(points);
-        }
-        return result;
-    }
-
-    public static List<float[]> interpolate(List<float[]> points, int index, int pointsPerSegment) {
-        List<float[]> result = new ArrayList<>();
-        double[] x = new double[4];
-        double[] y = new double[4];
-        double[] time = new double[4];
-        for (int i = 0; i < 4; i++) {
-            x[i] = points.get(index + i)[0];
-            y[i] = points.get(index + i)[1];
-            time[i] = i;
-        }
-
-        double tstart = 1;
-        double tend = 2;
-        double total = 0;
-        for (int i = 1; i < 4; i++) {
-            double dx = x[i] - x[i - 1];
-            double dy = y[i] - y[i - 1];
-            total += Math.pow(dx * dx + dy * dy, .25);
-            time[i] = total;
-        }
-        tstart = time[1];
-        tend = time[2];
-        double z1 = 0.0;
-        double z2 = 0.0;
-        if (!Double.isNaN(points.get(index + 1)[2])) {
-            z1 = points.get(index + 1)[2];
-        }
-        if (!Double.isNaN(points.get(index + 2)[2])) {
-            z2 = points.get(index + 2)[2];
-        }
-        double dz = z2 - z1;
-        int segments = pointsPerSegment - 1;
-        result.add(points.get(index + 1));
-        for (int i = 1; i < segments; i++) {
-            float xi = interpolate(x, time, tstart + (i * (tend - tstart)) / segments);
-            float yi = interpolate(y, time, tstart + (i * (tend - tstart)) / segments);
-            float zi = (float) (z1 + (dz * i) / segments);
-            result.add(new float[]{xi, yi, zi});
+    /**
+     * Sets how the knots are spaced when interpolating the control points,
+     * one of CatmullRomBuilder's UNIFORM, CENTRIPETAL, or CHORDAL (or any
+     * exponent in between), and recalculates the interpolation.
+     */
+    public void setAlpha(float alpha) {
+        myAlpha = alpha;
+        reinterpolate();
+    }
+
+    // recalculate the interpolated points and everything derived from them
+    private void reinterpolate() {
+        interpolatedPoints = calculateInterpolation(myPointsPerSegment);
+        myValidSegments = 0;
+        myArcLengths = null;
+        myFrames = null;
+        myTessellation = null;
+        mySegmentTree = null;
+    }
+
+    // interpolate only the segment ending at the last control point, and
+    // mark the interpolated segment that used to end the curve as changed
+    private void extendInterpolation() {
+        CatmullRomBuilder builder = new CatmullRomBuilder(myAlpha, myPointsPerSegment);
+        int segment = builder.numSegments(numControlPoints()) - 1;
+        if (segment < 0) {
+            return;
         }
-        result.add(points.get(index + 2));
-        return result;
+        int size = interpolatedPoints.size();
+        float[] points = new float[3 * myPointsPerSegment];
+        builder.buildSegments(myControlPoints, segment, 1, points, 0);
+        // the segment's first point is already the last one interpolated
+        int first = (size == 0) ? 0 : 1;
+        interpolatedPoints.addAll(points, 3 * first, myPointsPerSegment - first);
+        myValidSegments = Math.min(myValidSegments, Math.max(0, size - 2));
     }
 
-    public static float interpolate(double[] p, double[] time, double t) {
-        double L01 = p[0] * (time[1] - t) / (time[1] - time[0]) + p[1] * (t - time[0]) / (time[1] - time[0]);
-        double L12 = p[1] * (time[2] - t) / (time[2] - time[1]) + p[2] * (t - time[1]) / (time[2] - time[1]);
-        double L23 = p[2] * (time[3] - t) / (time[3] - time[2]) + p[3] * (t - time[2]) / (time[3] - time[2]);
-        double L012 = L01 * (time[2] - t) / (time[2] - time[0]) + L12 * (t - time[0]) / (time[2] - time[0]);
-        double L123 = L12 * (time[3] - t) / (time[3] - time[1]) + L23 * (t - time[1]) / (time[3] - time[1]);
-        double C12 = L012 * (time[2] - t) / (time[2] - time[1]) + L123 * (t - time[1]) / (time[2] - time[1]);
-        return (float) C12;
+    /**
+     * Returns n points along each segment of the Catmull-Rom curve through the
+     * control points, sharing the points where segments meet.
+     */
+    public PointStore calculateInterpolation(int n) {
+        return new CatmullRomBuilder(myAlpha, n).build(myControlPoints);
     }
 
     public int addPoint (float x, float y, float z) {
         return addPoint(new float[] { x, y, z});
     }
 
+    /**
+     * Appends a control point.  Once the curve has been interpolated, only the
+     * new segment is interpolated and everything derived from the curve is
+     * extended rather than rebuilt the next time it is used.
+     */
     public int addPoint (float[] point) {
-        myControlPoints.add(point);
-        return myControlPoints.size() - 1;
+        int index = myControlPoints.add(point);
+        if (myPointsPerSegment > 0) {
+            extendInterpolation();
+        }
+        return index;
     }
 
     /**
@@ -175,28 +246,190 @@ public class CatmullRomSpline implements Iterable<float[]> {
      * values giving better approximations.
      */
 
-    public void draw (GL2 gl, GLUT glut, float resolution, int seed) {
+    public void draw (GL2 gl, GLUT glut, float resolution) {
+        int count = (int)Math.ceil((interpolatedPoints.size() - 3) / resolution);
+        if (myRibbonPositions.length < count * 3) {
+            myRibbonPositions = new float[count * 3];
+            myRibbonBinormals = new float[count * 3];
+        }
+        rotationMinimizingFrames().evaluateRange(0, resolution, count, myRibbonPositions, null, null, myRibbonBinormals);
+        float[] pos = myRibbonPositions;
+        float[] bin = myRibbonBinormals;
         gl.glBegin(GL2.GL_QUAD_STRIP); {
-            Random r = new Random(seed);
-            for (float t = 0; t < interpolatedPoints.size() - 3; t+=resolution) {
-                float[] pos = evaluateDifferently(t);
-                float[] bin = evaluateBinormalDifferently(t, resolution);
-                int choice = r.nextInt(pallet.size());
-                float[] color = pallet.get(choice);
+            for (int k = 0; k < count * 3; k += 3) {
                 gl.glColor3f(1f, 0f, 1f);
-                gl.glVertex3f(pos[0] - 0.2f * bin[0], pos[1] - 0.2f * bin[1], pos[2] - 0.2f * bin[2]);
+                gl.glVertex3f(pos[k] - 0.2f * bin[k], pos[k + 1] - 0.2f * bin[k + 1], pos[k + 2] - 0.2f * bin[k + 2]);
                 gl.glColor3f(0f, 0f, 1f);
-                gl.glVertex3f(pos[0] + 0.2f * bin[0], pos[1] + 0.2f * bin[1], pos[2] + 0.2f * bin[2]);
+                gl.glVertex3f(pos[k] + 0.2f * bin[k], pos[k + 1] + 0.2f * bin[k + 1], pos[k + 2] + 0.2f * bin[k + 2]);
             }
         }
         gl.glEnd();
     }
 
+    /**
+     * Draws the curve as a ribbon tessellated adaptively to within the given
+     * distance of the curve.  The tessellation and ribbon are only recomputed
+     * when the curve changes, so drawing is just the vertex calls.
+     */
+    public void drawAdaptive (GL2 gl, float tolerance) {
+        ribbon(tolerance).draw(gl);
+    }
+
+    // the ribbon along the tessellation to within tolerance, brought up to date
+    private Ribbon ribbon (float tolerance) {
+        Tessellation tessellation = tessellate(tolerance);
+        if (myRibbonChangedFrom < numSegments()) {
+            myRibbon.update(tessellation, rotationMinimizingFrames(), myRibbonChangedFrom);
+            myRibbonChangedFrom = numSegments();
+        }
+        return myRibbon;
+    }
+
+    /**
+     * Returns the curve's adaptive tessellation to within the given distance,
+     * brought up to date with any control points added since it was last used.
+     */
+    public Tessellation tessellate (float tolerance) {
+        coefficients();
+        if (myTessellator == null || myTessellator.getTolerance() != tolerance) {
+            myTessellator = new AdaptiveTessellator(tolerance);
+            myTessellation = null;
+        }
+        if (myTessellation == null) {
+            myTessellation = myTessellator.tessellate(this);
+            myRibbonChangedFrom = 0;
+        }
+        else if (myTessellationChangedFrom < numSegments()) {
+            myTessellator.update(this, myTessellation, myTessellationChangedFrom);
+            myRibbonChangedFrom = Math.min(myRibbonChangedFrom, myTessellationChangedFrom);
+        }
+        myTessellationChangedFrom = numSegments();
+        return myTessellation;
+    }
+
+    /**
+     * Evaluates the curve through the interpolated points at count times,
+     * beginning at start and advancing by step, in a single pass.
+     *
+     * Results are packed as consecutive x, y, z triples, one array per quantity:
+     * the point, the (unnormalized) derivative, and the normal and unit binormal
+     * as computed by evaluateNormalDifferently and evaluateBinormalDifferently.
+     * Pass null for any quantity that is not needed.  The derivative is exact
+     * rather than a central difference, so the frame does not depend on a
+     * resolution.
+     */
+    public void evaluateRange (float start, float step, int count,
+                               float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        evaluateBatch(null, start, step, 0, count, positions, derivatives, normals, binormals);
+    }
+
+    /**
+     * Evaluates the curve at the first count of the given times in a single
+     * pass, packing the results as described in evaluateRange.  Times are
+     * clamped to the ends of the curve.  When only points and derivatives
+     * are wanted, they are read straight from the coefficients.
+     */
+    public void evaluateAll (float[] times, int count,
+                             float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        if (normals == null && binormals == null) {
+            CubicSegments.evaluateAll(this, times, count, positions, derivatives);
+        }
+        else {
+            evaluateBatch(times, 0, 0, 0, count, positions, derivatives, normals, binormals);
+        }
+    }
+
+    /**
+     * Evaluates the curve like evaluateRange, but appends the packed results
+     * to the given buffers (any of which may be null), advancing their
+     * positions.  Suitable for filling direct buffers used as vertex arrays.
+     */
+    public void evaluateRange (float start, float step, int count,
+                               FloatBuffer positions, FloatBuffer derivatives, FloatBuffer normals, FloatBuffer binormals) {
+        if (myBatchStaging == null) {
+            myBatchStaging = new float[4][BATCH_SIZE * 3];
+        }
+        float[][] staging = myBatchStaging;
+        for (int from = 0; from < count; from += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, count - from);
+            evaluateBatch(null, start, step, from, size,
+                          positions == null ? null : staging[0],
+                          derivatives == null ? null : staging[1],
+                          normals == null ? null : staging[2],
+                          binormals == null ? null : staging[3]);
+            if (positions != null) positions.put(staging[0], 0, size * 3);
+            if (derivatives != null) derivatives.put(staging[1], 0, size * 3);
+            if (normals != null) normals.put(staging[2], 0, size * 3);
+            if (binormals != null) binormals.put(staging[3], 0, size * 3);
+        }
+    }
+
+    // evaluate times[first + i] (or start + (first + i) * step when times is null)
+    // for i in [0, count), writing the i-th result at index 3 * i
+    private void evaluateBatch (float[] times, float start, float step, int first, int count,
+                                float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        float[] c = coefficients();
+        boolean needsFrame = (normals != null || binormals != null);
+        int segment = Integer.MIN_VALUE;
+        float ax = 0, bx = 0, cx = 0, ex = 0, ay = 0, by = 0, cy = 0, ey = 0, az = 0, bz = 0, cz = 0, ez = 0;
+        for (int i = 0; i < count; i++) {
+            float s = (times != null) ? times[first + i] : start + (first + i) * step;
+            int index = CubicSegments.segmentAt(this, s);
+            if (index != segment) {
+                // only look up coefficients when entering a new segment
+                segment = index;
+                int j = index * COEFFICIENTS_PER_SEGMENT;
+                ax = c[j];     bx = c[j + 1]; cx = c[j + 2];  ex = c[j + 3];
+                ay = c[j + 4]; by = c[j + 5]; cy = c[j + 6];  ey = c[j + 7];
+                az = c[j + 8]; bz = c[j + 9]; cz = c[j + 10]; ez = c[j + 11];
+            }
+            float t = CubicSegments.localParameter(this, s);
+            int k = 3 * i;
+            if (positions != null) {
+                positions[k]     = ((ax * t + bx) * t + cx) * t + ex;
+                positions[k + 1] = ((ay * t + by) * t + cy) * t + ey;
+                positions[k + 2] = ((az * t + bz) * t + cz) * t + ez;
+            }
+            if (derivatives == null && !needsFrame) {
+                continue;
+            }
+            float dx = (3 * ax * t + 2 * bx) * t + cx;
+            float dy = (3 * ay * t + 2 * by) * t + cy;
+            float dz = (3 * az * t + 2 * bz) * t + cz;
+            if (derivatives != null) {
+                derivatives[k] = dx;
+                derivatives[k + 1] = dy;
+                derivatives[k + 2] = dz;
+            }
+            if (!needsFrame) {
+                continue;
+            }
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            float tx = dx / length, ty = dy / length, tz = dz / length;
+            if (normals != null) {
+                normals[k] = 0;
+                normals[k + 1] = -tz;
+                normals[k + 2] = ty;
+            }
+            if (binormals != null) {
+                // tangent crossed with the normal (0, -tz, ty)
+                float nx = (ty * ty) + (tz * tz);
+                float ny = -(tx * ty);
+                float nz = -(tx * tz);
+                length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                binormals[k] = nx / length;
+                binormals[k + 1] = ny / length;
+                binormals[k + 2] = nz / length;
+            }
+        }
+    }
+
     public void evenlyDrawRoad (GL2 gl, GLUT glut, float resolution, float dist, float t, ArrayList<float[]> pallet) {
         float start = -dist;
         float step = (dist * 2f) / pallet.size();
-        float[] pos = evaluateDifferently(t);
-        float[] bin = evaluateBinormalDifferently(t, resolution);
+        rotationMinimizingFrames().evaluate(t, myRoadFrame);
+        float[] pos = myRoadFrame.position;
+        float[] bin = myRoadFrame.binormal;
         gl.glBegin(GL2.GL_QUAD_STRIP); {
             for(int i = 0; i < pallet.size() - 1; i+=2) {
                 gl.glColor3f(pallet.get(i)[0], pallet.get(i)[1], pallet.get(i)[2]);
@@ -213,28 +446,61 @@ public class CatmullRomSpline implements Iterable<float[]> {
     }
 
     public float[] scalePoints(float t[], float scalar) {
-        return new float[]{t[0] * scalar, t[1] * scalar, t[2] * scalar};
+        return scalePoints(t, scalar, new float[3]);
     }
 
     public float[] sumPoints(float t[], float s[]) {
-        return new float[]{t[0] + s[0], t[1] + s[1], t[2] + s[2]};
+        return sumPoints(t, s, new float[3]);
     }
 
     public float[] subPoints(float t[], float s[]) {
-        return new float[]{t[0] - s[0], t[1] - s[1], t[2] - s[2]};
+        return subPoints(t, s, new float[3]);
     }
 
     public float[] multPoints(float t[], float s[]) {
-        return new float[]{t[0] * s[0], t[1] * s[1], t[2] * s[2]};
+        return multPoints(t, s, new float[3]);
+    }
+
+    /**
+     * Versions of the point arithmetic above that write into the given
+     * result (which may be one of the arguments) and return it.
+     */
+    public float[] scalePoints(float t[], float scalar, float result[]) {
+        result[0] = t[0] * scalar;
+        result[1] = t[1] * scalar;
+        result[2] = t[2] * scalar;
+        return result;
+    }
+
+    public float[] sumPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] + s[0];
+        result[1] = t[1] + s[1];
+        result[2] = t[2] + s[2];
+        return result;
+    }
+
+    public float[] subPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] - s[0];
+        result[1] = t[1] - s[1];
+        result[2] = t[2] - s[2];
+        return result;
+    }
+
+    public float[] multPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] * s[0];
+        result[1] = t[1] * s[1];
+        result[2] = t[2] * s[2];
+        return result;
     }
 
     /**
      * Draws control points around the curve as a collection of points.
      */
     public void drawControlPoints (GL2 gl) {
+        float[] c = interpolatedPoints.coordinates();
         gl.glBegin(GL2.GL_POINTS); {
-            for (float[] pt : interpolatedPoints) {
-                gl.glVertex3fv(pt, 0);
+            for (int k = 0; k < 3 * interpolatedPoints.size(); k += 3) {
+                gl.glVertex3fv(c, k);
             }
         }
         gl.glEnd();
@@ -246,7 +512,7 @@ public class CatmullRomSpline implements Iterable<float[]> {
      */
     @Override
     public Iterator<float[]> iterator () {
-        return Collections.unmodifiableList(myControlPoints).iterator();
+        return myControlPoints.iterator();
     }
 
     /**
@@ -266,96 +532,353 @@ public class CatmullRomSpline implements Iterable<float[]> {
     }
 
     public float[] evaluateNormalDifferently(float t, float res) {
-        float[] tangent = normalize(findTangent(t, res));
-        return crossProduct(new float[]{1, 0, 0}, tangent);
+        float[] result = new float[3];
+        evaluateNormalDifferently(t, res, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes (1, 0, 0) crossed with the unit tangent at t into result at offset.
+     */
+    public void evaluateNormalDifferently(float t, float res, float[] result, int offset) {
+        findLookAt(t, res, result, offset);
+        float ty = result[offset + 1], tz = result[offset + 2];
+        result[offset] = 0;
+        result[offset + 1] = -tz;
+        result[offset + 2] = ty;
     }
 
     public float[] evaluateBinormalDifferently(float t, float res) {
-        float[] tangent = normalize(findTangent(t, res));
-        float[] normal = evaluateNormalDifferently(t, res);
-        return normalize(crossProduct(tangent, normal));
+        float[] result = new float[3];
+        evaluateBinormalDifferently(t, res, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes the unit tangent at t crossed with its normal into result at offset.
+     */
+    public void evaluateBinormalDifferently(float t, float res, float[] result, int offset) {
+        findLookAt(t, res, result, offset);
+        float tx = result[offset], ty = result[offset + 1], tz = result[offset + 2];
+        // normal is (0, -tz, ty), so tangent x normal simplifies to
+        result[offset] = (ty * ty) + (tz * tz);
+        result[offset + 1] = -(tx * ty);
+        result[offset + 2] = -(tx * tz);
+        normalize(result, offset);
+    }
+
+    /**
+     * Evaluates the position, unit tangent, normal, and binormal at t into
+     * the given frame, without allocating anything.
+     */
+    public void evaluateFrameDifferently(float t, float res, Frame frame) {
+        evaluateDifferently(t, frame.position, 0);
+        findLookAt(t, res, frame.tangent, 0);
+        float[] tangent = frame.tangent;
+        frame.normal[0] = 0;
+        frame.normal[1] = -tangent[2];
+        frame.normal[2] = tangent[1];
+        crossProduct(tangent, frame.normal, frame.binormal);
+        normalize(frame.binormal, frame.binormal);
     }
 
     public float[] crossProduct(float[] x, float[] y) {
-        // performs cross product for x cross y
+        return crossProduct(x, y, new float[3]);
+    }
+
+    /**
+     * Performs cross product for x cross y into result, which may be
+     * either of the arguments, and returns it.
+     */
+    public float[] crossProduct(float[] x, float[] y, float[] result) {
         float i, j, k;
         i = (x[1] * y[2]) - (x[2] * y[1]);
         j = -(x[0] * y[2]) + (x[2] * y[0]);
         k = (x[0] * y[1]) - (x[1] * y[0]);
-        return new float[]{i, j, k};
+        result[0] = i;
+        result[1] = j;
+        result[2] = k;
+        return result;
     }
 
     public float[] normalize(float[] t) {
-        double length = Math.pow(t[0], 2) + Math.pow(t[1], 2) + Math.pow(t[2], 2);
-        float scalar = (float) Math.sqrt(length);
-        return new float[]{t[0]/scalar, t[1]/scalar, t[2]/scalar};
+        return normalize(t, new float[3]);
+    }
+
+    /**
+     * Normalizes t into result, which may be t itself, and returns it.
+     */
+    public float[] normalize(float[] t, float[] result) {
+        float scalar = (float) Math.sqrt(t[0] * t[0] + t[1] * t[1] + t[2] * t[2]);
+        result[0] = t[0] / scalar;
+        result[1] = t[1] / scalar;
+        result[2] = t[2] / scalar;
+        return result;
+    }
+
+    // normalizes the vector stored at the given offset in place
+    private void normalize (float[] t, int offset) {
+        float scalar = (float) Math.sqrt(t[offset] * t[offset] + t[offset + 1] * t[offset + 1] + t[offset + 2] * t[offset + 2]);
+        t[offset] /= scalar;
+        t[offset + 1] /= scalar;
+        t[offset + 2] /= scalar;
     }
 
     public float[] findTangent (float t, float res) {
+        float[] result = new float[3];
+        findTangent(t, res, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes the central difference around t into result at offset.
+     */
+    public void findTangent (float t, float res, float[] result, int offset) {
         if(t < res) {
             t = res;
         }
-        return subPoints(evaluateDifferently(t + res), evaluateDifferently(t - res));
+        evaluateDifferently(t - res, result, offset);
+        float x = result[offset], y = result[offset + 1], z = result[offset + 2];
+        evaluateDifferently(t + res, result, offset);
+        result[offset] -= x;
+        result[offset + 1] -= y;
+        result[offset + 2] -= z;
     }
 
     public float[] findLookAt (float t, float res) {
-        return normalize(findTangent(t, res));
+        float[] result = new float[3];
+        findLookAt(t, res, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes the unit tangent at t into result at offset.
+     */
+    public void findLookAt (float t, float res, float[] result, int offset) {
+        findTangent(t, res, result, offset);
+        normalize(result, offset);
     }
 
     public float[] evaluateDifferently (float s) {
-        int index = (int) Math.floor(s);
-        float t = s - index;
-        float t3 = t * t * t;
-        float t2 = t * t;
-        float[] c0, c1, c2, c3;
-        if(index < 1 && index >= 0) {
-            // make new starting point
-            c0 = sumPoints(interpolatedPoints.get(index), subPoints(interpolatedPoints.get(index), interpolatedPoints.get(index + 1)));
-            c1 = interpolatedPoints.get(index);
-            c2 = interpolatedPoints.get(index + 1);
-            c3 = interpolatedPoints.get(index + 2);
+        float[] result = new float[3];
+        evaluateDifferently(s, result, 0);
+        return result;
+    }
+
+    /**
+     * Evaluates the curve through the interpolated points at s, writing
+     * its x, y, z into the given array starting at offset.
+     */
+    public void evaluateDifferently (float s, float[] result, int offset) {
+        int segment = CubicSegments.segmentAt(this, s);
+        float t = CubicSegments.localParameter(this, s);
+        CubicSegments.evaluate(coefficients(), segment, t, result, offset);
+    }
+
+    /**
+     * Evaluates the exact derivative of the curve through the interpolated
+     * points at s, writing it into the given array starting at offset.
+     */
+    public void evaluateDerivativeDifferently (float s, float[] result, int offset) {
+        int segment = CubicSegments.segmentAt(this, s);
+        float t = CubicSegments.localParameter(this, s);
+        CubicSegments.derivative(coefficients(), segment, t, result, offset);
+    }
+
+    /**
+     * Evaluates the second derivative of the curve through the interpolated
+     * points at s, writing it into the given array starting at offset.
+     */
+    public void evaluateSecondDerivativeDifferently (float s, float[] result, int offset) {
+        int segment = CubicSegments.segmentAt(this, s);
+        float t = CubicSegments.localParameter(this, s);
+        CubicSegments.secondDerivative(coefficients(), segment, t, result, offset);
+    }
+
+    /**
+     * Returns the number of curve segments between the interpolated points.
+     */
+    @Override
+    public int numSegments () {
+        return Math.max(0, interpolatedPoints.size() - 1);
+    }
+
+    /**
+     * Returns the power basis coefficients of every segment of the curve
+     * through the interpolated points.
+     *
+     * Segment i, the part of the curve for s in [i .. i+1], starts at index
+     * 12 * i and holds a, b, c, d for x, then y, then z, such that the point
+     * at t in [0 .. 1] is ((a * t + b) * t + c) * t + d.  The phantom points
+     * before the first and after the last interpolated point are resolved
+     * when the table is built, so evaluation never needs to special case
+     * the ends.  The returned array is only valid until the interpolation
+     * is recalculated or control points are added, and may be longer than
+     * the segments need.
+     */
+    @Override
+    public float[] coefficients () {
+        int segments = numSegments();
+        if (myValidSegments < segments) {
+            if (myCoefficients.length < segments * COEFFICIENTS_PER_SEGMENT) {
+                myCoefficients = Arrays.copyOf(myCoefficients,
+                                               Math.max(segments, 2 * myCoefficients.length / COEFFICIENTS_PER_SEGMENT) * COEFFICIENTS_PER_SEGMENT);
+            }
+            for (int i = myValidSegments; i < segments; i++) {
+                computeSegment(i);
+            }
+            myArcLengthsChangedFrom = Math.min(myArcLengthsChangedFrom, myValidSegments);
+            myFramesChangedFrom = Math.min(myFramesChangedFrom, myValidSegments);
+            myTessellationChangedFrom = Math.min(myTessellationChangedFrom, myValidSegments);
+            mySegmentTreeChangedFrom = Math.min(mySegmentTreeChangedFrom, myValidSegments);
+            myValidSegments = segments;
         }
-        else if(index > interpolatedPoints.size() - 3 && index < interpolatedPoints.size() - 2) {
-            // make new ending point
-            c0 = interpolatedPoints.get(index - 1);
-            c1 = interpolatedPoints.get(index);
-            c2 = interpolatedPoints.get(index + 1);
-            c3 = sumPoints(c2, subPoints(interpolatedPoints.get(index + 1), interpolatedPoints.get(index)));
+        return myCoefficients;
+    }
+
+    /**
+     * Returns false, since the curve runs from the first interpolated point to the last.
+     */
+    @Override
+    public boolean isClosed () {
+        return false;
+    }
+
+    /**
+     * Returns the table mapping distance along the curve to s, brought up to
+     * date with any control points added since it was last used.
+     */
+    public ArcLengthTable arcLengths () {
+        coefficients();
+        if (myArcLengths == null) {
+            myArcLengths = new ArcLengthTable(this);
         }
-        else {
-            c0 = interpolatedPoints.get(index - 1);
-            c1 = interpolatedPoints.get(index);
-            c2 = interpolatedPoints.get(index + 1);
-            c3 = interpolatedPoints.get(index + 2);
+        else if (myArcLengthsChangedFrom < numSegments()) {
+            myArcLengths.update(myArcLengthsChangedFrom);
+        }
+        myArcLengthsChangedFrom = numSegments();
+        return myArcLengths;
+    }
+
+    /**
+     * Returns the rotation minimizing frames along the curve, brought up to
+     * date with any control points added since they were last used.
+     */
+    public RotationMinimizingFrames rotationMinimizingFrames () {
+        coefficients();
+        if (myFrames == null) {
+            myFrames = new RotationMinimizingFrames(this, myFrameDensity);
+        }
+        else if (myFramesChangedFrom < numSegments()) {
+            myFrames.update(myFramesChangedFrom);
         }
-        float f1 = -0.5f * t3 + t2 - 0.5f * t;
-        float f2 = 1.5f * t3 - 2.5f * t2 + 1.0f;
-        float f3 = -1.5f * t3 + 2.0f * t2 + 0.5f * t;
-        float f4 = 0.5f * t3 - 0.5f * t2;
+        myFramesChangedFrom = numSegments();
+        return myFrames;
+    }
 
-        float x = c0[0] * f1 + c1[0] * f2 + c2[0] * f3 + c3[0] * f4;
-        float y = c0[1] * f1 + c1[1] * f2 + c2[1] * f3 + c3[1] * f4;
-        float z = c0[2] * f1 + c1[2] * f2 + c2[2] * f3 + c3[2] * f4;
-        return new float[]{x, y, z};
+    /**
+     * Returns the bounding volume hierarchy over the curve's segments, brought
+     * up to date with any control points added since it was last used.
+     */
+    public SegmentTree segmentTree () {
+        coefficients();
+        if (mySegmentTree == null) {
+            mySegmentTree = new SegmentTree(this);
+        }
+        else if (mySegmentTreeChangedFrom < numSegments()) {
+            mySegmentTree.update(mySegmentTreeChangedFrom);
+        }
+        mySegmentTreeChangedFrom = numSegments();
+        return mySegmentTree;
     }
 
+    /**
+     * Returns the parameter of the point on the curve closest to the given
+     * point, found through the segment tree rather than by sampling.
+     */
+    public float closestParameter (float[] point) {
+        return segmentTree().closestParameter(point);
+    }
+
+    /**
+     * Returns the distance from the given point to the closest point on the curve.
+     */
+    public float distanceTo (float[] point) {
+        return segmentTree().distanceTo(point);
+    }
+
+    /**
+     * Sets how many rotation minimizing frames are sampled per segment.
+     */
+    public void setFrameDensity (int samplesPerSegment) {
+        myFrameDensity = samplesPerSegment;
+        myFrames = null;
+        myRibbonChangedFrom = 0;
+    }
+
+    /**
+     * Evaluates the position and rotation minimizing frame at s into the
+     * given frame.  Unlike evaluateFrameDifferently, this stays well defined
+     * when the track runs along the x axis and never flips.
+     */
+    public void evaluateRotationMinimizingFrame (float s, Frame frame) {
+        rotationMinimizingFrames().evaluate(s, frame);
+    }
+
+    /**
+     * Returns the length of the curve through the interpolated points.
+     */
+    public float totalLength () {
+        return arcLengths().totalLength();
+    }
+
+    /**
+     * Returns the s at which the curve has covered the given distance,
+     * clamped to the ends of the curve.
+     */
+    public float parameterAtDistance (float distance) {
+        return arcLengths().parameterAtDistance(distance);
+    }
+
+    // convert the segment's four surrounding points to the power basis
+    private void computeSegment (int segment) {
+        int last = interpolatedPoints.size() - 1;
+        float[] c = interpolatedPoints.coordinates();
+        int p1 = 3 * segment;
+        int p2 = p1 + 3;
+        boolean hasP0 = segment > 0;
+        boolean hasP3 = segment + 1 < last;
+        int k = segment * COEFFICIENTS_PER_SEGMENT;
+        for (int dim = 0; dim < 3; dim++, k += 4) {
+            float c1 = c[p1 + dim];
+            float c2 = c[p2 + dim];
+            // reflect the neighbor across the end point when there is no point beyond it
+            float c0 = hasP0 ? c[p1 - 3 + dim] : c1 + (c1 - c2);
+            float c3 = hasP3 ? c[p2 + 3 + dim] : c2 + (c2 - c1);
+            myCoefficients[k]     = 0.5f * (-c0 + 3 * c1 - 3 * c2 + c3);
+            myCoefficients[k + 1] = 0.5f * (2 * c0 - 5 * c1 + 4 * c2 - c3);
+            myCoefficients[k + 2] = 0.5f * (-c0 + c2);
+            myCoefficients[k + 3] = c1;
+        }
+    }
+
+    /**
+     * Adds a control point one random step on from the last, heading on
+     * without turning back on the curve.
+     */
     public void makeRandomPoint() {
-        float[] tangent = makeControlPointTangent(numControlPoints() - 1, numControlPoints() - 2);
-        float[] basis = new float[3];
-        float[] newPoint = new float[3];
-        float dot_val = -0.1f;
-        while(dot_val < 0.0f) {
-            Random r = new Random();
-            basis[0] = r.nextFloat() * 2 - 1;
-            basis[1] = r.nextFloat() * 2 - 1;
-            basis[2] = r.nextFloat() * 2 - 1;
-            newPoint = sumPoints(myControlPoints.get(numControlPoints() - 1), scalePoints(basis, 30f));
-            dot_val = computeDotProduct(tangent, subPoints(newPoint, myControlPoints.get(numControlPoints() - 1)));
-            if(Math.abs(newPoint[0]) >= 490f || Math.abs(newPoint[1]) >= 490f || Math.abs(newPoint[2]) >= 490f)
-                dot_val = -0.1f;
+        myGenerator.generate(myControlPoints, 1);
+        if (myPointsPerSegment > 0) {
+            extendInterpolation();
         }
-        myControlPoints.add(newPoint);
-        float[] printer = sumPoints(myControlPoints.get(numControlPoints() - 1), scalePoints(basis, 20f));
+    }
+
+    /**
+     * Sets the generator random control points are made with, which starts
+     * as one with the default seed so curves are the same from run to run.
+     */
+    public void setGenerator(TrackGenerator generator) {
+        myGenerator = generator;
     }
 
     public float computeDotProduct(float[] v1, float[] v2) {
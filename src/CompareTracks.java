@@ -0,0 +1,33 @@
+import framework.ComparisonReport;
+import framework.CurveComparison;
+import framework.Spline;
+
+
+/**
+ * Compares the Catmull-Rom and B-spline curves through the control points of
+ * each track file named on the command line, printing one CSV row per track.
+ *
+ * Usage: java CompareTracks [-segments] track.txt ...
+ *
+ * With -segments, each track's per-segment deviations follow its summary row.
+ */
+public class CompareTracks {
+    public static void main (String[] args) throws Exception {
+        boolean segments = false;
+        CurveComparison comparison = new CurveComparison();
+        System.out.println(ComparisonReport.csvHeader());
+        for (String arg : args) {
+            if (arg.equals("-segments")) {
+                segments = true;
+                continue;
+            }
+            CatmullRomSpline catmull = new CatmullRomSpline(arg, 0);
+            Spline bspline = new Spline(catmull.getOriginalPoints());
+            ComparisonReport report = comparison.compare(catmull, bspline);
+            System.out.println(report.toCsvRow(arg));
+            if (segments) {
+                report.writeSegmentsCsv(System.out);
+            }
+        }
+    }
+}
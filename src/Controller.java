@@ -1,4 +1,8 @@
+import framework.EndlessTrack;
+import framework.Frame;
+import framework.PointStore;
 import framework.Spline;
+import framework.TrackFile;
 
 import java.util.ArrayList;
 
@@ -7,8 +11,14 @@ import java.util.ArrayList;
  */
 public class Controller {
 
+    // world units travelled per frame for each unit of speed
+    private static final float DISTANCE_PER_SPEED = 20.0f;
+    // short tracks are filled out with random control points up to this many
+    public static final int TRACK_POINTS = 100;
+
     public CatmullRomSpline track;
     public Spline track2;
+    public EndlessTrack endless;
     public float fromX;
     public float fromY;
     public float fromZ;
@@ -19,6 +29,7 @@ public class Controller {
     public float upY;
     public float upZ;
     public float spline_path;
+    public float distance;
     public float speed;
     public float roll;
     public float yaw;
@@ -41,12 +52,35 @@ public class Controller {
     public float sBinormX = 0.0f;
     public float sBinormY = 0.0f;
     public float sBinormZ = 0.0f;
+    private Frame frame = new Frame();
+    // the endless track is followed for hours, so keep its position in doubles
+    private double endlessDistance;
+    private double endlessPath;
 
 
     public Controller(float fx, float fy, float fz, float tx, float ty, float tz,
                       float ux, float uy, float uz, String path) {
-        track = new CatmullRomSpline(path, 100);
+        this(fx, fy, fz, tx, ty, tz, ux, uy, uz, TrackFile.readPoints(path));
+    }
+
+    /**
+     * Create a controller following tracks through the given control points,
+     * for points already loaded, perhaps in the background.
+     */
+    public Controller(float fx, float fy, float fz, float tx, float ty, float tz,
+                      float ux, float uy, float uz, PointStore points) {
+        this(fx, fy, fz, tx, ty, tz, ux, uy, uz, new CatmullRomSpline(points, TRACK_POINTS));
+    }
+
+    /**
+     * Create a controller following the given track, perhaps read from the
+     * track cache, and a Bezier track through the same control points.
+     */
+    public Controller(float fx, float fy, float fz, float tx, float ty, float tz,
+                      float ux, float uy, float uz, CatmullRomSpline track) {
+        this.track = track;
         track2 = new Spline(track.getOriginalPoints());
+        endless = new EndlessTrack(System.nanoTime());
         fromX = fx;
         fromY = fy;
         fromZ = fz;
@@ -57,6 +91,7 @@ public class Controller {
         upY = uy;
         upZ = uz;
         spline_path = 0.0f;
+        distance = 0.0f;
         speed = 0.0f;
         roll = 0.0f;
         yaw = 0.0f;
@@ -75,35 +110,73 @@ public class Controller {
         currentZ += z;
     }
 
+    /**
+     * Moves along the followed track by a distance proportional to speed, so
+     * the camera keeps a steady pace no matter how the control points are spaced.
+     */
+    public void advance(boolean followCatmull) {
+        distance += speed * DISTANCE_PER_SPEED;
+        if (followCatmull) {
+            spline_path = track.parameterAtDistance(distance);
+        }
+        else {
+            spline_path = track2.parameterAtDistance(distance);
+        }
+    }
+
+    /**
+     * Moves on by speed while no track is followed, keeping the distance
+     * along the track in step with advance so following picks up from it.
+     */
+    public void drift() {
+        spline_path += speed;
+        distance += speed * DISTANCE_PER_SPEED;
+    }
+
+    /**
+     * Moves along the endless track like advance, generating more track
+     * ahead and retiring track behind, and updates the camera's frame.
+     */
+    public void advanceEndless() {
+        endlessDistance += speed * DISTANCE_PER_SPEED;
+        endlessPath = endless.parameterAtDistance(endlessDistance);
+        endless.advanceTo(endlessPath);
+        endless.evaluateFrame(endlessPath, frame);
+        spline_path = (float)endlessPath;
+        copyFrame();
+    }
+
     public void updateSplineVars() {
-        sPosX = track2.evaluateAt(spline_path)[0];
-        sPosY = track2.evaluateAt(spline_path)[1];
-        sPosZ = track2.evaluateAt(spline_path)[2];
-        sDerX = track2.normalize(track2.evaluateDerivativeAt(spline_path))[0];
-        sDerY = track2.normalize(track2.evaluateDerivativeAt(spline_path))[1];
-        sDerZ = track2.normalize(track2.evaluateDerivativeAt(spline_path))[2];
-        sNormX = track2.evaluateNormal(spline_path)[0];
-        sNormY = track2.evaluateNormal(spline_path)[1];
-        sNormZ = track2.evaluateNormal(spline_path)[2];
-        sBinormX = track2.evaluateBinormal(spline_path)[0];
-        sBinormY = track2.evaluateBinormal(spline_path)[1];
-        sBinormZ = track2.evaluateBinormal(spline_path)[2];
+        track2.evaluateRotationMinimizingFrame(spline_path, frame);
+        copyFrame();
+    }
+
+    public void updateCatmullVars () {
+        track.evaluateRotationMinimizingFrame(spline_path, frame);
+        copyFrame();
     }
 
-    public void updateSplineVars (float res) {
-        sPosX = track.evaluateDifferently(spline_path)[0];
-        sPosY = track.evaluateDifferently(spline_path)[1];
-        sPosZ = track.evaluateDifferently(spline_path)[2];
-        sDerX = track.findLookAt(spline_path, res)[0];
-        sDerY = track.findLookAt(spline_path, res)[1];
-        sDerZ = track.findLookAt(spline_path, res)[2];
-        sNormX = track.evaluateNormalDifferently(spline_path, res)[0];
-        sNormY = track.evaluateNormalDifferently(spline_path, res)[1];
-        sNormZ = track.evaluateNormalDifferently(spline_path, res)[2];
+    private void copyFrame() {
+        sPosX = frame.position[0];
+        sPosY = frame.position[1];
+        sPosZ = frame.position[2];
+        sDerX = frame.tangent[0];
+        sDerY = frame.tangent[1];
+        sDerZ = frame.tangent[2];
+        sNormX = frame.normal[0];
+        sNormY = frame.normal[1];
+        sNormZ = frame.normal[2];
+        sBinormX = frame.binormal[0];
+        sBinormY = frame.binormal[1];
+        sBinormZ = frame.binormal[2];
     }
 
     public void resetAll() {
         spline_path = 0.00f;
+        distance = 0.0f;
+        endlessDistance = 0;
+        endlessPath = 0;
+        endless = new EndlessTrack(System.nanoTime());
         speed = 0.001f;
         roll = 0.0f;
         yaw = 0.0f;
@@ -0,0 +1,24 @@
+import framework.TrackFile;
+
+
+/**
+ * Converts text track files, one point of three numbers per line, to the
+ * binary track format, which opens in the same time however long the track.
+ *
+ * Usage: java ConvertTrack track.txt [track.trk]
+ *
+ * Without an output name, the binary file is written next to the text file
+ * with the .trk extension.
+ */
+public class ConvertTrack {
+    public static void main (String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java ConvertTrack track.txt [track.trk]");
+            System.exit(2);
+        }
+        String output = (args.length > 1) ? args[1] : TrackFile.binaryName(args[0]);
+        long start = System.nanoTime();
+        int points = TrackFile.convert(args[0], output);
+        System.out.printf("Wrote %d points to %s in %.1f ms%n", points, output, (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -1,11 +1,17 @@
 import com.jogamp.opengl.util.awt.TextRenderer;
 import com.jogamp.opengl.util.gl2.GLUT;
+import framework.Heightmap;
 import framework.JOGLFrame;
+import framework.Pixmap;
 import framework.Scene;
+import framework.TrackCache;
+import framework.Terrain;
+import framework.TrackException;
 import javax.media.opengl.GL2;
 import javax.media.opengl.glu.GLU;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 
 /**
  * Created by eli on 4/20/15.
@@ -21,16 +27,34 @@ public class Main extends Scene {
     private static String DEFAULT_CONTROL_POINTS = "tracks/catmull_base_points.txt";
     private static String[] TEXTURE_FILES = { "images/purplenebula_ft.tga","images/purplenebula_lf.tga",
             "images/purplenebula_rt.tga","images/purplenebula_up.tga","images/purplenebula_dn.tga","images/purplenebula_bk.tga"};
+    // farthest the drawn tracks may stray from the true curves, in world units
+    private static final float TRACK_TOLERANCE = .01f;
+    // the terrain under the tracks: its elevation image, sampled 4097 heights along its
+    // longer side and in proportion along the other, spanning the skybox's floor, with heights from its base up to its height
+    private static final String TERRAIN_FILE = "images/sierra_elev.jpg";
+    private static final int TERRAIN_SAMPLES = 4097;
+    private static final float TERRAIN_SIZE = 980f;
+    private static final float TERRAIN_HEIGHT = 100f;
+    private static final float TERRAIN_BASE = -120f;
+    // pixels on screen the terrain may stray from its heights, at full and reduced detail
+    private static final float TERRAIN_DETAIL = Terrain.DEFAULT_PIXEL_ERROR;
+    private static final float TERRAIN_REDUCED_DETAIL = 16f;
     private final int TERRAIN_ID = 1;
-    private float resolution;
     private int myRenderMode;
     private boolean isCompiled;
     private boolean bspline_cam;
     private boolean cspline_cam;
+    private boolean endless_cam;
     private boolean bspline_toggle;
     private boolean cspline_toggle;
     private boolean control_point_toggle;
-    private Controller control;
+    private boolean terrain_toggle;
+    // null until the track has loaded in the background
+    private volatile Controller control;
+    private volatile float loadProgress;
+    private volatile String loadError;
+    // null until the terrain has loaded in the background
+    private volatile Terrain terrain;
     private TextRenderer renderer;
     private Skybox box;
 
@@ -48,15 +72,75 @@ public class Main extends Scene {
         cspline_toggle = false;
         bspline_cam = false;
         cspline_cam = false;
+        endless_cam = false;
         control_point_toggle = false;
-        resolution = .01f;
+        terrain_toggle = true;
         myRenderMode = GL2.GL_QUADS;
         gl.glEnable(GL2.GL_NORMALIZE);
         gl.glShadeModel(GL2.GL_SMOOTH);
         gl.glEnable(GL2.GL_COLOR_MATERIAL);
         box = new Skybox(gl, glu, glut, TEXTURE_FILES);
         renderer = new TextRenderer(new Font("SansSerif", Font.BOLD, 24));
-        control = new Controller(0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f, DEFAULT_CONTROL_POINTS);
+        loadTrack(DEFAULT_CONTROL_POINTS);
+        loadTerrain(TERRAIN_FILE);
+    }
+
+    // load the track and build the controller off the drawing thread, so
+    // huge tracks do not freeze the window while they load, reusing the
+    // curve built on an earlier run if the track has not changed since
+    private void loadTrack (String fileName) {
+        Thread loader = new Thread(() -> {
+            try {
+                CatmullRomSpline track = CatmullRomSpline.load(fileName, Controller.TRACK_POINTS, TRACK_TOLERANCE,
+                                                               new TrackCache(TrackCache.DEFAULT_DIRECTORY),
+                                                               (loaded, total) -> loadProgress = (float)loaded / total);
+                control = new Controller(0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f, track);
+            }
+            catch (TrackException e) {
+                loadError = e.getMessage();
+            }
+            catch (RuntimeException | Error e) {
+                // anything else, such as running out of memory on a huge track, would otherwise
+                // end this thread silently and leave the loading message up for good
+                loadError = "Failed to load track " + fileName + ": " + e;
+            }
+        }, "track loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // build the terrain off the drawing thread too; the scene is drawn without it until it is ready
+    private void loadTerrain (String fileName) {
+        Thread loader = new Thread(() -> {
+            try {
+                Pixmap image = new Pixmap(fileName);
+                Dimension size = image.getSize();
+                // sample the longer side fully and the shorter in proportion, so the ground keeps the image's shape
+                int longer = Math.max(size.width, size.height);
+                int columns = Math.round((TERRAIN_SAMPLES - 1) * (float)size.width / longer) + 1;
+                int rows = Math.round((TERRAIN_SAMPLES - 1) * (float)size.height / longer) + 1;
+                Heightmap heights = Heightmap.fromPixmap(image, columns, rows);
+                terrain = new Terrain(heights, TERRAIN_SIZE, TERRAIN_HEIGHT, TERRAIN_BASE);
+            }
+            catch (IOException | RuntimeException | Error e) {
+                // the scene is still drawn without the terrain, so report why it is missing
+                System.err.println("Unable to load terrain image: " + fileName);
+                System.err.println(e);
+            }
+        }, "terrain loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // show how far the track has loaded, or why it did not
+    private void drawLoading (GL2 gl, GLU glu, GLUT glut) {
+        box.drawSides(gl, glu, glut);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+        String message = (loadError != null) ? loadError : String.format("Loading track... %d%%", (int)(100 * loadProgress));
+        renderer.beginRendering(600, 600);
+        renderer.setColor(1.0f, 1.0f, 1.0f, 1.0f);
+        renderer.draw(message, 10, 580);
+        renderer.endRendering();
     }
 
     /**
@@ -64,16 +148,27 @@ public class Main extends Scene {
      */
     @Override
     public void display (GL2 gl, GLU glu, GLUT glut) {
+        if (control == null) {
+            drawLoading(gl, glu, glut);
+            return;
+        }
+        // drawn from its vertex buffers each frame rather than compiled into the display list
+        if (terrain != null && terrain_toggle) {
+            terrain.draw(gl);
+        }
         if (!isCompiled) {
             gl.glDeleteLists(TERRAIN_ID, 1);
             gl.glNewList(TERRAIN_ID, GL2.GL_COMPILE);
             box.drawSides(gl, glu, glut);
             gl.glDisable(GL2.GL_TEXTURE_2D);
             if (bspline_toggle) {
-                control.track.draw(gl, glut, resolution, 2);
+                control.track.drawAdaptive(gl, TRACK_TOLERANCE);
             }
             if (cspline_toggle) {
-                control.track2.draw(gl, glut, resolution);
+                control.track2.drawAdaptive(gl, TRACK_TOLERANCE);
+            }
+            if (endless_cam) {
+                control.endless.draw(gl);
             }
             if (control_point_toggle) {
                 gl.glColor3f(0.0f, 1.0f, 0.0f);
@@ -95,11 +190,23 @@ public class Main extends Scene {
      */
     @Override
     public void animate (GL2 gl, GLU glu, GLUT glut) {
-        control.spline_path += control.speed;
-        if(cspline_cam & !bspline_cam)
-            control.updateSplineVars(resolution);
-        if(bspline_cam & !cspline_cam)
+        if (control == null) {
+            return;
+        }
+        if(endless_cam) {
+            control.advanceEndless();
+        }
+        else if(cspline_cam & !bspline_cam) {
+            control.advance(true);
+            control.updateCatmullVars();
+        }
+        else if(bspline_cam & !cspline_cam) {
+            control.advance(false);
             control.updateSplineVars();
+        }
+        else {
+            control.drift();
+        }
         isCompiled = false;
     }
 
@@ -108,8 +215,11 @@ public class Main extends Scene {
      */
     @Override
     public void setCamera(GL2 gl, GLU glu, GLUT glut) {
-        float fx, fy, fz, tx, ty, tz;
-        if(!bspline_cam && !cspline_cam) {
+        float fx = 0, fy = 0, fz = 0, tx = 0, ty = 0, tz = -1;
+        if (control == null) {
+            glu.gluLookAt(fx, fy, fz, tx, ty, tz, 0, 1, 0);
+        }
+        else if(!bspline_cam && !cspline_cam && !endless_cam) {
             fx = control.fromX;
             fy = control.fromY;
             fz = control.fromZ;
@@ -131,6 +241,11 @@ public class Main extends Scene {
                     tx, ty, tz,   // to position
                     control.sNormX, control.sNormY, control.sNormZ);
         }
+        // pick the terrain's detail for where the camera is now
+        if (terrain != null && terrain_toggle) {
+            Dimension size = getWindowSize();
+            terrain.update(gl, fx, fy, fz, tx, ty, tz, size.width, size.height);
+        }
     }
 
     /**
@@ -154,6 +269,9 @@ public class Main extends Scene {
      */
     @Override
     public void keyPressed(int keyCode) {
+        if (control == null) {
+            return;
+        }
         switch (keyCode) {
             case KeyEvent.VK_T:   // reset animation
                 control.resetAll();
@@ -184,10 +302,23 @@ public class Main extends Scene {
                 cspline_cam = !cspline_cam;
                 isCompiled = false;
                 break;
+            case KeyEvent.VK_E:  // toggle following of an endless generated track
+                control.resetAll();
+                endless_cam = !endless_cam;
+                isCompiled = false;
+                break;
             case KeyEvent.VK_V:  // toggle drawing control points
                 control_point_toggle = !control_point_toggle;
                 isCompiled = false;
                 break;
+            case KeyEvent.VK_G:  // toggle drawing of the terrain
+                terrain_toggle = !terrain_toggle;
+                break;
+            case KeyEvent.VK_L:  // toggle between full and reduced terrain detail
+                if (terrain != null) {
+                    terrain.setPixelError((terrain.getPixelError() == TERRAIN_DETAIL) ? TERRAIN_REDUCED_DETAIL : TERRAIN_DETAIL);
+                }
+                break;
         }
     }
 
@@ -0,0 +1,221 @@
+package framework;
+
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Approximates a curve by a polyline whose vertices are placed where they
+ * are needed: each segment is halved until the curve strays less than a
+ * chordal tolerance from every edge and turns less than an angle tolerance
+ * along it.  Straight stretches get a single edge while tight turns get as
+ * many as they need, so a track typically needs several times fewer vertices
+ * than stepping by a fixed parameter resolution, and looks better in loops.
+ *
+ * Tessellate once when the curve changes and draw the result every frame.
+ * Long stretches of changed segments are tessellated in parallel: the
+ * vertices of each segment are counted, the counts summed into each
+ * segment's starting index, and then every segment writes its vertices
+ * straight into place, so the result is the same as tessellating in order.
+ */
+public class AdaptiveTessellator {
+    public static final float DEFAULT_ANGLE = (float)Math.toRadians(5);
+    // no segment is halved more than this many times
+    private static final int MAX_DEPTH = 12;
+    // most vertices one segment can produce, not counting its end
+    private static final int MAX_SEGMENT_VERTICES = 1 << MAX_DEPTH;
+    // segments changed at once before the work is split across threads
+    private static final int PARALLEL_THRESHOLD = 4096;
+    // segments handled by each parallel task
+    private static final int GRAIN = 1024;
+
+    private float myTolerance;
+    private float myMinCosine;
+    // right ends of the intervals waiting to be examined
+    private float[] myStack = new float[MAX_DEPTH + 1];
+    private float[] myScratch = new float[12];
+
+
+    /**
+     * Create a tessellator with the given chordal tolerance, in world units,
+     * and the default angle tolerance.
+     */
+    public AdaptiveTessellator (float tolerance) {
+        this(tolerance, DEFAULT_ANGLE);
+    }
+
+    /**
+     * Create a tessellator with the given chordal tolerance, in world units,
+     * and angle tolerance, in radians.
+     */
+    public AdaptiveTessellator (float tolerance, float angle) {
+        myTolerance = tolerance;
+        myMinCosine = (float)Math.cos(angle);
+    }
+
+    /**
+     * Returns the chordal tolerance.
+     */
+    public float getTolerance () {
+        return myTolerance;
+    }
+
+    /**
+     * Returns a new tessellation of the entire curve.
+     */
+    public Tessellation tessellate (Curve curve) {
+        Tessellation result = new Tessellation();
+        update(curve, result, 0);
+        return result;
+    }
+
+    /**
+     * Rebuilds the given tessellation from the given segment onward, also
+     * covering any segments added to the curve since it was built.
+     */
+    public void update (Curve curve, Tessellation tessellation, int firstChangedSegment) {
+        float[] c = curve.coefficients();
+        int segments = curve.numSegments();
+        tessellation.truncate(firstChangedSegment, segments);
+        int first = tessellation.numSegments();
+        if (segments - first >= PARALLEL_THRESHOLD) {
+            updateInParallel(c, tessellation, first, segments);
+        }
+        else {
+            for (int i = first; i < segments; i++) {
+                tessellation.reserve(tessellation.size() + MAX_SEGMENT_VERTICES);
+                int count = tessellateSegment(c, i, tessellation.getParameters(), tessellation.getPositions(),
+                                              tessellation.size(), myScratch, myStack);
+                tessellation.extend(i, count);
+            }
+        }
+        if (segments > 0) {
+            // close the polyline at the very end of the curve
+            CubicSegments.evaluate(c, segments - 1, 1, myScratch, 0);
+            tessellation.add(segments, myScratch, 0);
+            tessellation.finish();
+        }
+    }
+
+    // tessellate segments [first .. segments) by counting, summing, and then writing in parallel
+    private void updateInParallel (float[] c, Tessellation tessellation, int first, int segments) {
+        // count each segment's vertices into the start of the segment after it
+        int[] starts = tessellation.segmentStarts();
+        new SegmentTask(c, first, segments, null, null, starts).invoke();
+        starts[first] = tessellation.size();
+        for (int i = first; i < segments; i++) {
+            starts[i + 1] += starts[i];
+        }
+        tessellation.reserve(starts[segments] + 1);
+        new SegmentTask(c, first, segments, tessellation.getParameters(), tessellation.getPositions(), starts).invoke();
+        tessellation.extendTo(segments, starts[segments]);
+    }
+
+    // write the vertices of one segment, excluding its end which starts the next,
+    // at the given index and return how many there are; when parameters is null
+    // only count them.  x and stack are scratch space.
+    private int tessellateSegment (float[] c, int segment, float[] parameters, float[] positions, int index,
+                                   float[] x, float[] stack) {
+        // x holds the point and derivative at the left end of the current
+        // interval at 0 and 3, and at its right end at 6 and 9
+        CubicSegments.evaluate(c, segment, 0, x, 0);
+        CubicSegments.derivative(c, segment, 0, x, 3);
+        int k = index;
+        if (parameters != null) {
+            parameters[k] = segment;
+            System.arraycopy(x, 0, positions, 3 * k, 3);
+        }
+        k++;
+        float u0 = 0;
+        int depth = 0;
+        stack[depth++] = 1;
+        while (depth > 0) {
+            float u1 = stack[depth - 1];
+            CubicSegments.evaluate(c, segment, u1, x, 6);
+            CubicSegments.derivative(c, segment, u1, x, 9);
+            if (depth <= MAX_DEPTH && !isFlat(x, u1 - u0)) {
+                stack[depth++] = 0.5f * (u0 + u1);
+                continue;
+            }
+            depth--;
+            if (depth > 0) {
+                if (parameters != null) {
+                    parameters[k] = segment + u1;
+                    System.arraycopy(x, 6, positions, 3 * k, 3);
+                }
+                k++;
+            }
+            System.arraycopy(x, 6, x, 0, 6);
+            u0 = u1;
+        }
+        return k - index;
+    }
+
+    // true if the edge across an interval of the given length, whose ends are in x,
+    // is close enough to the curve
+    private boolean isFlat (float[] x, float length) {
+        float dot = x[3] * x[9] + x[4] * x[10] + x[5] * x[11];
+        float squared0 = x[3] * x[3] + x[4] * x[4] + x[5] * x[5];
+        float squared1 = x[9] * x[9] + x[10] * x[10] + x[11] * x[11];
+        if (dot < myMinCosine * (float)Math.sqrt(squared0 * squared1)) {
+            return false;
+        }
+        // the curve over the interval lies within the hull of its Bezier control
+        // points, so it is close enough if the two inner ones are close enough
+        float h = length / 3;
+        return distanceToEdge(x, x[0] + h * x[3], x[1] + h * x[4], x[2] + h * x[5]) <= myTolerance &&
+               distanceToEdge(x, x[6] - h * x[9], x[7] - h * x[10], x[8] - h * x[11]) <= myTolerance;
+    }
+
+    // distance from the given point to the edge between the points in x at 0 and 6
+    private static float distanceToEdge (float[] x, float px, float py, float pz) {
+        float ex = x[6] - x[0], ey = x[7] - x[1], ez = x[8] - x[2];
+        float mx = px - x[0], my = py - x[1], mz = pz - x[2];
+        float squared = ex * ex + ey * ey + ez * ez;
+        float along = (squared > 0) ? (mx * ex + my * ey + mz * ez) / squared : 0;
+        along = Math.max(0, Math.min(along, 1));
+        float dx = mx - along * ex, dy = my - along * ey, dz = mz - along * ez;
+        return (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // tessellates a range of segments, splitting it across threads when long;
+    // without output arrays it counts the vertices of each segment into the
+    // start of the next instead
+    private class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] myCoefficients;
+        private final int myFrom;
+        private final int myTo;
+        private final float[] myParameters;
+        private final float[] myPositions;
+        private final int[] myStarts;
+
+        SegmentTask (float[] c, int from, int to, float[] parameters, float[] positions, int[] starts) {
+            myCoefficients = c;
+            myFrom = from;
+            myTo = to;
+            myParameters = parameters;
+            myPositions = positions;
+            myStarts = starts;
+        }
+
+        @Override
+        protected void compute () {
+            if (myTo - myFrom > GRAIN) {
+                int middle = (myFrom + myTo) >>> 1;
+                invokeAll(new SegmentTask(myCoefficients, myFrom, middle, myParameters, myPositions, myStarts),
+                          new SegmentTask(myCoefficients, middle, myTo, myParameters, myPositions, myStarts));
+                return;
+            }
+            float[] x = new float[12];
+            float[] stack = new float[MAX_DEPTH + 1];
+            for (int i = myFrom; i < myTo; i++) {
+                if (myParameters == null) {
+                    myStarts[i + 1] = tessellateSegment(myCoefficients, i, null, null, 0, x, stack);
+                }
+                else {
+                    tessellateSegment(myCoefficients, i, myParameters, myPositions, myStarts[i], x, stack);
+                }
+            }
+        }
+    }
+}
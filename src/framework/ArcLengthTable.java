@@ -0,0 +1,176 @@
+package framework;
+
+import java.util.Arrays;
+
+
+/**
+ * Maps distance travelled along a curve to the curve's parameter.
+ *
+ * The length of each segment is found by Gauss-Legendre quadrature of the
+ * curve's speed and accumulated into a prefix table, so the table builds in
+ * time linear in the number of segments.  A lookup binary searches the table
+ * for the segment and then refines the parameter within it using Newton's
+ * method, without allocating anything, so it is cheap enough to call every
+ * frame for any number of followers.
+ *
+ * When segments are appended or changed, call update with the first changed
+ * segment and only the table from that point on is recomputed.
+ */
+public class ArcLengthTable {
+    // five point Gauss-Legendre nodes and weights, mapped onto [0 .. 1]
+    private static final double[] NODES = {
+        0.5 - 0.4530899229693320, 0.5 - 0.2692346550528415, 0.5,
+        0.5 + 0.2692346550528415, 0.5 + 0.4530899229693320
+    };
+    private static final double[] WEIGHTS = {
+        0.1184634425280945, 0.2393143352496832, 0.2844444444444444,
+        0.2393143352496832, 0.1184634425280945
+    };
+    // lookups stop refining once within this fraction of a segment's length
+    private static final double TOLERANCE = 1e-6;
+    private static final int MAX_ITERATIONS = 8;
+
+    private Curve myCurve;
+    // myCumulative[i] is the length of the curve before segment i
+    private double[] myCumulative = new double[1];
+    private int mySegments;
+
+
+    /**
+     * Create a table of the given curve's arc length.
+     */
+    public ArcLengthTable (Curve curve) {
+        myCurve = curve;
+        update(0);
+    }
+
+    // a table of the given curve restored from lengths measured before
+    ArcLengthTable (Curve curve, double[] cumulative, int segments) {
+        myCurve = curve;
+        myCumulative = cumulative;
+        mySegments = segments;
+    }
+
+    /**
+     * Recomputes the lengths of all segments starting with the given one,
+     * also picking up any segments added to the curve since the last update.
+     */
+    public void update (int firstChangedSegment) {
+        float[] c = myCurve.coefficients();
+        int segments = myCurve.numSegments();
+        if (myCumulative.length < segments + 1) {
+            myCumulative = Arrays.copyOf(myCumulative, Math.max(segments + 1, 2 * myCumulative.length));
+        }
+        for (int i = Math.max(0, Math.min(firstChangedSegment, mySegments)); i < segments; i++) {
+            myCumulative[i + 1] = myCumulative[i] + segmentLength(c, i, 1);
+        }
+        mySegments = segments;
+    }
+
+    /**
+     * Returns the number of segments covered by the table.
+     */
+    public int numSegments () {
+        return mySegments;
+    }
+
+    // the length of the curve before each segment, for saving the table
+    double[] cumulativeLengths () {
+        return myCumulative;
+    }
+
+    /**
+     * Returns the length of the entire curve.
+     */
+    public float totalLength () {
+        return (float)myCumulative[mySegments];
+    }
+
+    /**
+     * Returns the distance along the curve from its start to parameter t.
+     */
+    public float distanceAtParameter (float t) {
+        if (mySegments == 0) {
+            return 0;
+        }
+        int segment = CubicSegments.segmentAt(myCurve, t);
+        float u = CubicSegments.localParameter(myCurve, t);
+        return (float)(myCumulative[segment] + segmentLength(myCurve.coefficients(), segment, u));
+    }
+
+    /**
+     * Returns the parameter of the point the given distance along the curve.
+     *
+     * Distances beyond either end wrap around closed curves and are clamped
+     * to the ends of open ones.
+     */
+    public float parameterAtDistance (float distance) {
+        if (mySegments == 0) {
+            return 0;
+        }
+        double total = myCumulative[mySegments];
+        double s = distance;
+        if (myCurve.isClosed()) {
+            s = s - Math.floor(s / total) * total;
+        }
+        else {
+            s = Math.max(0, Math.min(s, total));
+        }
+        int segment = findSegment(s);
+        double length = myCumulative[segment + 1] - myCumulative[segment];
+        if (length <= 0) {
+            return segment;
+        }
+        return (float)(segment + solveWithinSegment(myCurve.coefficients(), segment, s - myCumulative[segment], length));
+    }
+
+    // binary search for the last segment that starts at or before distance s
+    private int findSegment (double s) {
+        int low = 0;
+        int high = mySegments - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (myCumulative[mid] <= s) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // find u in [0 .. 1] such that the segment's length up to u is target,
+    // using Newton's method kept within a shrinking bracket around the root
+    static double solveWithinSegment (float[] c, int segment, double target, double length) {
+        double low = 0;
+        double high = 1;
+        double u = target / length;
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double error = segmentLength(c, segment, u) - target;
+            if (Math.abs(error) < TOLERANCE * length) {
+                break;
+            }
+            if (error > 0) {
+                high = u;
+            }
+            else {
+                low = u;
+            }
+            double speed = CubicSegments.speed(c, segment, u);
+            double next = (speed > 0) ? u - error / speed : low - 1;
+            // fall back to bisection when Newton's step leaves the bracket
+            u = (next > low && next < high) ? next : 0.5 * (low + high);
+        }
+        return u;
+    }
+
+    // length of the given segment from its start to parameter u
+    static double segmentLength (float[] c, int segment, double u) {
+        double sum = 0;
+        for (int i = 0; i < NODES.length; i++) {
+            sum += WEIGHTS[i] * CubicSegments.speed(c, segment, NODES[i] * u);
+        }
+        return sum * u;
+    }
+}
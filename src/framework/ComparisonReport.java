@@ -0,0 +1,219 @@
+package framework;
+
+import java.io.IOException;
+import java.util.Locale;
+
+
+/**
+ * The deviation of one curve from another, as measured by CurveComparison:
+ * overall figures plus the deviation of each segment of the first curve.
+ *
+ * Distances are in world units, means are weighted by arc length, and
+ * curvature differences compare each sample of the first curve with the
+ * closest point on the second.  Reports can be written as CSV, one summary
+ * row per comparison for batches of tracks or one row per segment.
+ */
+public class ComparisonReport {
+    private static final String SUMMARY_HEADER =
+        "name,segments,hausdorff,max_deviation,mean_deviation,rms_deviation," +
+        "length_first,length_second,length_difference,mean_curvature_difference,max_curvature_difference";
+    private static final String SEGMENT_HEADER =
+        "segment,length,max_deviation,mean_deviation,rms_deviation,mean_curvature_difference,max_curvature_difference";
+
+    private int mySegments;
+    // per segment of the first curve
+    private float[] myMax;
+    private double[] myLength;
+    private double[] mySum;
+    private double[] mySquares;
+    private double[] myCurvature;
+    private float[] myMaxCurvature;
+    // overall
+    private float myHausdorff;
+    private float myMaxDeviation;
+    private float myMeanDeviation;
+    private float myRmsDeviation;
+    private float myFirstLength;
+    private float mySecondLength;
+    private float myMeanCurvatureDifference;
+    private float myMaxCurvatureDifference;
+
+
+    ComparisonReport (int segments) {
+        mySegments = segments;
+        myMax = new float[segments];
+        myLength = new double[segments];
+        mySum = new double[segments];
+        mySquares = new double[segments];
+        myCurvature = new double[segments];
+        myMaxCurvature = new float[segments];
+    }
+
+    /**
+     * Returns the CSV header matching toCsvRow.
+     */
+    public static String csvHeader () {
+        return SUMMARY_HEADER;
+    }
+
+    /**
+     * Returns the number of segments of the first curve.
+     */
+    public int numSegments () {
+        return mySegments;
+    }
+
+    /**
+     * Returns the Hausdorff distance: the farthest either curve gets from the other.
+     */
+    public float getHausdorffDistance () {
+        return myHausdorff;
+    }
+
+    /**
+     * Returns the farthest the first curve gets from the second.
+     */
+    public float getMaxDeviation () {
+        return myMaxDeviation;
+    }
+
+    /**
+     * Returns the mean distance from the first curve to the second.
+     */
+    public float getMeanDeviation () {
+        return myMeanDeviation;
+    }
+
+    /**
+     * Returns the root mean square distance from the first curve to the second.
+     */
+    public float getRmsDeviation () {
+        return myRmsDeviation;
+    }
+
+    /**
+     * Returns the length of the first curve.
+     */
+    public float getFirstLength () {
+        return myFirstLength;
+    }
+
+    /**
+     * Returns the length of the second curve.
+     */
+    public float getSecondLength () {
+        return mySecondLength;
+    }
+
+    /**
+     * Returns how much longer the first curve is than the second.
+     */
+    public float getLengthDifference () {
+        return myFirstLength - mySecondLength;
+    }
+
+    /**
+     * Returns the mean difference in curvature between the curves.
+     */
+    public float getMeanCurvatureDifference () {
+        return myMeanCurvatureDifference;
+    }
+
+    /**
+     * Returns the largest difference in curvature between the curves.
+     */
+    public float getMaxCurvatureDifference () {
+        return myMaxCurvatureDifference;
+    }
+
+    /**
+     * Returns the farthest the given segment of the first curve gets from the second.
+     */
+    public float getSegmentMaxDeviation (int segment) {
+        return myMax[segment];
+    }
+
+    /**
+     * Returns the mean distance from the given segment of the first curve to the second.
+     */
+    public float getSegmentMeanDeviation (int segment) {
+        return (myLength[segment] > 0) ? (float)(mySum[segment] / myLength[segment]) : 0;
+    }
+
+    /**
+     * Returns the root mean square distance from the given segment of the first curve to the second.
+     */
+    public float getSegmentRmsDeviation (int segment) {
+        return (myLength[segment] > 0) ? (float)Math.sqrt(mySquares[segment] / myLength[segment]) : 0;
+    }
+
+    /**
+     * Returns the mean difference in curvature along the given segment of the first curve.
+     */
+    public float getSegmentCurvatureDifference (int segment) {
+        return (myLength[segment] > 0) ? (float)(myCurvature[segment] / myLength[segment]) : 0;
+    }
+
+    /**
+     * Returns the overall figures as one CSV row, starting with the given name.
+     */
+    public String toCsvRow (String name) {
+        return String.format(Locale.ROOT, "%s,%d,%g,%g,%g,%g,%g,%g,%g,%g,%g",
+                             name, mySegments, myHausdorff, myMaxDeviation, myMeanDeviation, myRmsDeviation,
+                             myFirstLength, mySecondLength, getLengthDifference(),
+                             myMeanCurvatureDifference, myMaxCurvatureDifference);
+    }
+
+    /**
+     * Writes a header and then one CSV row per segment of the first curve.
+     */
+    public void writeSegmentsCsv (Appendable out) throws IOException {
+        out.append(SEGMENT_HEADER).append('\n');
+        for (int i = 0; i < mySegments; i++) {
+            out.append(String.format(Locale.ROOT, "%d,%g,%g,%g,%g,%g,%g%n",
+                                     i, myLength[i], myMax[i], getSegmentMeanDeviation(i),
+                                     getSegmentRmsDeviation(i), getSegmentCurvatureDifference(i),
+                                     myMaxCurvature[i]));
+        }
+    }
+
+    @Override
+    public String toString () {
+        return String.format(Locale.ROOT, "hausdorff %g, max %g, mean %g, rms %g, length %g vs %g, curvature %g (max %g)",
+                             myHausdorff, myMaxDeviation, myMeanDeviation, myRmsDeviation,
+                             myFirstLength, mySecondLength, myMeanCurvatureDifference, myMaxCurvatureDifference);
+    }
+
+    // record the sums for one segment, each segment is written by one task only
+    void setSegment (int segment, float max, double length, double sum, double squares,
+                     double curvature, float maxCurvature) {
+        myMax[segment] = max;
+        myLength[segment] = length;
+        mySum[segment] = sum;
+        mySquares[segment] = squares;
+        myCurvature[segment] = curvature;
+        myMaxCurvature[segment] = maxCurvature;
+    }
+
+    // combine the segments into the overall figures
+    void summarize (float firstLength, float secondLength, float reverseMaxDeviation) {
+        double length = 0, sum = 0, squares = 0, curvature = 0;
+        float max = 0, maxCurvature = 0;
+        for (int i = 0; i < mySegments; i++) {
+            length += myLength[i];
+            sum += mySum[i];
+            squares += mySquares[i];
+            curvature += myCurvature[i];
+            max = Math.max(max, myMax[i]);
+            maxCurvature = Math.max(maxCurvature, myMaxCurvature[i]);
+        }
+        myMaxDeviation = max;
+        myHausdorff = Math.max(max, reverseMaxDeviation);
+        myMeanDeviation = (length > 0) ? (float)(sum / length) : 0;
+        myRmsDeviation = (length > 0) ? (float)Math.sqrt(squares / length) : 0;
+        myMeanCurvatureDifference = (length > 0) ? (float)(curvature / length) : 0;
+        myMaxCurvatureDifference = maxCurvature;
+        myFirstLength = firstLength;
+        mySecondLength = secondLength;
+    }
+}
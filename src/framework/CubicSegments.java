@@ -0,0 +1,121 @@
+package framework;
+
+
+/**
+ * Evaluates the segments of a Curve directly from its coefficient array.
+ *
+ * Each method takes the coefficient array, the segment to use, and the
+ * local parameter u in [0 .. 1] within it, and writes x, y, z into the
+ * given array at offset so that nothing is allocated.
+ *
+ * @see Curve
+ */
+public final class CubicSegments {
+    // not meant to be instantiated
+    private CubicSegments () {
+    }
+
+    /**
+     * Returns the segment containing parameter t of the given curve, wrapped
+     * around closed curves and clamped to the ends of open ones.
+     */
+    public static int segmentAt (Curve curve, float t) {
+        int segments = curve.numSegments();
+        int segment = (int)Math.floor(t);
+        if (curve.isClosed()) {
+            return Math.floorMod(segment, segments);
+        }
+        return Math.max(0, Math.min(segment, segments - 1));
+    }
+
+    /**
+     * Returns the offset of t within the segment chosen by segmentAt.
+     */
+    public static float localParameter (Curve curve, float t) {
+        int segment = (int)Math.floor(t);
+        if (!curve.isClosed()) {
+            if (segment < 0) {
+                return 0;
+            }
+            if (segment >= curve.numSegments()) {
+                return 1;
+            }
+        }
+        return t - segment;
+    }
+
+    /**
+     * Writes the points and derivatives of the given curve at the first count
+     * of times, packed as x, y, z triples; either array may be null.  The
+     * coefficients are only looked up when the times move onto a new segment.
+     */
+    public static void evaluateAll (Curve curve, float[] times, int count, float[] positions, float[] derivatives) {
+        float[] c = curve.coefficients();
+        int segment = -1;
+        float ax = 0, bx = 0, cx = 0, dx = 0, ay = 0, by = 0, cy = 0, dy = 0, az = 0, bz = 0, cz = 0, dz = 0;
+        for (int i = 0; i < count; i++) {
+            float time = times[i];
+            int index = segmentAt(curve, time);
+            if (index != segment) {
+                segment = index;
+                int k = index * Curve.COEFFICIENTS_PER_SEGMENT;
+                ax = c[k];     bx = c[k + 1]; cx = c[k + 2];  dx = c[k + 3];
+                ay = c[k + 4]; by = c[k + 5]; cy = c[k + 6];  dy = c[k + 7];
+                az = c[k + 8]; bz = c[k + 9]; cz = c[k + 10]; dz = c[k + 11];
+            }
+            float t = localParameter(curve, time);
+            int out = 3 * i;
+            if (positions != null) {
+                positions[out]     = ((ax * t + bx) * t + cx) * t + dx;
+                positions[out + 1] = ((ay * t + by) * t + cy) * t + dy;
+                positions[out + 2] = ((az * t + bz) * t + cz) * t + dz;
+            }
+            if (derivatives != null) {
+                derivatives[out]     = (3 * ax * t + 2 * bx) * t + cx;
+                derivatives[out + 1] = (3 * ay * t + 2 * by) * t + cy;
+                derivatives[out + 2] = (3 * az * t + 2 * bz) * t + cz;
+            }
+        }
+    }
+
+    /**
+     * Writes the point at u on the given segment.
+     */
+    public static void evaluate (float[] c, int segment, float u, float[] result, int offset) {
+        int k = segment * Curve.COEFFICIENTS_PER_SEGMENT;
+        result[offset]     = ((c[k]     * u + c[k + 1]) * u + c[k + 2])  * u + c[k + 3];
+        result[offset + 1] = ((c[k + 4] * u + c[k + 5]) * u + c[k + 6])  * u + c[k + 7];
+        result[offset + 2] = ((c[k + 8] * u + c[k + 9]) * u + c[k + 10]) * u + c[k + 11];
+    }
+
+    /**
+     * Writes the derivative at u on the given segment.
+     */
+    public static void derivative (float[] c, int segment, float u, float[] result, int offset) {
+        int k = segment * Curve.COEFFICIENTS_PER_SEGMENT;
+        result[offset]     = (3 * c[k]     * u + 2 * c[k + 1]) * u + c[k + 2];
+        result[offset + 1] = (3 * c[k + 4] * u + 2 * c[k + 5]) * u + c[k + 6];
+        result[offset + 2] = (3 * c[k + 8] * u + 2 * c[k + 9]) * u + c[k + 10];
+    }
+
+    /**
+     * Writes the second derivative at u on the given segment.
+     */
+    public static void secondDerivative (float[] c, int segment, float u, float[] result, int offset) {
+        int k = segment * Curve.COEFFICIENTS_PER_SEGMENT;
+        result[offset]     = 6 * c[k]     * u + 2 * c[k + 1];
+        result[offset + 1] = 6 * c[k + 4] * u + 2 * c[k + 5];
+        result[offset + 2] = 6 * c[k + 8] * u + 2 * c[k + 9];
+    }
+
+    /**
+     * Returns the length of the derivative at u on the given segment.
+     */
+    public static double speed (float[] c, int segment, double u) {
+        int k = segment * Curve.COEFFICIENTS_PER_SEGMENT;
+        double dx = (3 * c[k]     * u + 2 * c[k + 1]) * u + c[k + 2];
+        double dy = (3 * c[k + 4] * u + 2 * c[k + 5]) * u + c[k + 6];
+        double dz = (3 * c[k + 8] * u + 2 * c[k + 9]) * u + c[k + 10];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
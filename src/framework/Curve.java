@@ -0,0 +1,31 @@
+package framework;
+
+/**
+ * A curve made of a sequence of cubic segments, each stored in the power basis.
+ *
+ * Segment i covers the parameter range [i .. i+1] and its coefficients start at
+ * index COEFFICIENTS_PER_SEGMENT * i of the array returned by coefficients():
+ * a, b, c, d for x, then y, then z, such that the point at u in [0 .. 1] is
+ * ((a * u + b) * u + c) * u + d.  Sharing this layout lets the same lookup
+ * structures work for every kind of spline.
+ *
+ * @see CubicSegments
+ */
+public interface Curve {
+    int COEFFICIENTS_PER_SEGMENT = 12;
+
+    /**
+     * Returns the number of cubic segments in the curve.
+     */
+    int numSegments ();
+
+    /**
+     * Returns the coefficients of every segment, which may be longer than needed.
+     */
+    float[] coefficients ();
+
+    /**
+     * Returns true if the end of the last segment joins the start of the first.
+     */
+    boolean isClosed ();
+}
@@ -0,0 +1,144 @@
+package framework;
+
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Measures how far apart two curves are, for comparing curves built in
+ * different ways from the same control points.
+ *
+ * Each segment of the first curve is sampled and every sample is matched
+ * to its closest point on the second curve using the second curve's segment
+ * tree; the second curve is sampled against the first the same way to find
+ * the Hausdorff distance.  Means are weighted by arc length so densely
+ * parameterized stretches do not count for more.  Segments are measured in
+ * parallel, each task with its own closest point search.
+ */
+public class CurveComparison {
+    public static final int DEFAULT_SAMPLES_PER_SEGMENT = 16;
+    // segments measured by each parallel task
+    private static final int GRAIN = 64;
+
+    private int mySamplesPerSegment;
+
+
+    /**
+     * Create a comparison sampling each segment at the default density.
+     */
+    public CurveComparison () {
+        this(DEFAULT_SAMPLES_PER_SEGMENT);
+    }
+
+    /**
+     * Create a comparison sampling each segment the given number of times.
+     */
+    public CurveComparison (int samplesPerSegment) {
+        mySamplesPerSegment = Math.max(1, samplesPerSegment);
+    }
+
+    /**
+     * Returns how the first curve deviates from the second, segment by
+     * segment of the first curve.
+     */
+    public ComparisonReport compare (Curve first, Curve second) {
+        ComparisonReport report = new ComparisonReport(first.numSegments());
+        if (first.numSegments() == 0 || second.numSegments() == 0) {
+            return report;
+        }
+        SegmentTree firstTree = new SegmentTree(first);
+        SegmentTree secondTree = new SegmentTree(second);
+        new SegmentTask(first, second, secondTree, report, 0, first.numSegments()).invoke();
+        // the other way around only the farthest sample is needed, for the Hausdorff distance
+        ComparisonReport reverse = new ComparisonReport(second.numSegments());
+        new SegmentTask(second, first, firstTree, reverse, 0, second.numSegments()).invoke();
+        float firstLength = new ArcLengthTable(first).totalLength();
+        float secondLength = new ArcLengthTable(second).totalLength();
+        reverse.summarize(secondLength, firstLength, 0);
+        report.summarize(firstLength, secondLength, reverse.getMaxDeviation());
+        return report;
+    }
+
+    // measure segment i of curve against the other curve into the report's arrays at i
+    private void measureSegment (Curve curve, Curve other, SegmentTree.Search search, int segment,
+                                 ComparisonReport report, float[] x) {
+        float[] c = curve.coefficients();
+        float[] o = other.coefficients();
+        double weight = 0, sum = 0, squares = 0, curvature = 0;
+        float max = 0, maxCurvature = 0;
+        for (int j = 0; j < mySamplesPerSegment; j++) {
+            // sample the middle of each of the equal parameter intervals
+            float u = (j + 0.5f) / mySamplesPerSegment;
+            CubicSegments.evaluate(c, segment, u, x, 0);
+            CubicSegments.derivative(c, segment, u, x, 3);
+            CubicSegments.secondDerivative(c, segment, u, x, 6);
+            double w = length(x, 3) / mySamplesPerSegment;
+            search.find(x[0], x[1], x[2]);
+            float d = (float)Math.sqrt(search.getDistanceSquared());
+            float kappa = curvature(x);
+            float t = search.getParameter();
+            int s = CubicSegments.segmentAt(other, t);
+            float v = CubicSegments.localParameter(other, t);
+            CubicSegments.derivative(o, s, v, x, 3);
+            CubicSegments.secondDerivative(o, s, v, x, 6);
+            float difference = Math.abs(kappa - curvature(x));
+            weight += w;
+            sum += w * d;
+            squares += w * d * d;
+            curvature += w * difference;
+            max = Math.max(max, d);
+            maxCurvature = Math.max(maxCurvature, difference);
+        }
+        report.setSegment(segment, max, weight, sum, squares, curvature, maxCurvature);
+    }
+
+    // curvature from the first and second derivatives in x at 3 and 6
+    private static float curvature (float[] x) {
+        float cx = (x[4] * x[8]) - (x[5] * x[7]);
+        float cy = -(x[3] * x[8]) + (x[5] * x[6]);
+        float cz = (x[3] * x[7]) - (x[4] * x[6]);
+        float speed = length(x, 3);
+        if (speed == 0) {
+            return 0;
+        }
+        return (float)Math.sqrt(cx * cx + cy * cy + cz * cz) / (speed * speed * speed);
+    }
+
+    private static float length (float[] v, int k) {
+        return (float)Math.sqrt(v[k] * v[k] + v[k + 1] * v[k + 1] + v[k + 2] * v[k + 2]);
+    }
+
+    // measures a range of segments, splitting it across threads when long
+    private class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Curve myCurve;
+        private final Curve myOther;
+        private final SegmentTree myOtherTree;
+        private final ComparisonReport myReport;
+        private final int myFrom;
+        private final int myTo;
+
+        SegmentTask (Curve curve, Curve other, SegmentTree otherTree, ComparisonReport report, int from, int to) {
+            myCurve = curve;
+            myOther = other;
+            myOtherTree = otherTree;
+            myReport = report;
+            myFrom = from;
+            myTo = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (myTo - myFrom > GRAIN) {
+                int middle = (myFrom + myTo) >>> 1;
+                invokeAll(new SegmentTask(myCurve, myOther, myOtherTree, myReport, myFrom, middle),
+                          new SegmentTask(myCurve, myOther, myOtherTree, myReport, middle, myTo));
+                return;
+            }
+            SegmentTree.Search search = myOtherTree.newSearch();
+            float[] x = new float[9];
+            for (int i = myFrom; i < myTo; i++) {
+                measureSegment(myCurve, myOther, search, i, myReport, x);
+            }
+        }
+    }
+}
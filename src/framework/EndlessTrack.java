@@ -0,0 +1,332 @@
+package framework;
+
+import javax.media.opengl.GL2;
+
+
+/**
+ * A B-spline track that goes on forever, generating control points ahead of
+ * whoever follows it and forgetting the ones left behind.
+ *
+ * Segments keep their global index for the whole session, so a follower can
+ * hold on to its parameter or distance while the track moves underneath it.
+ * Everything known about a segment (its control point, coefficients, the
+ * distance along the track to its start, its rotation minimizing frames,
+ * and its ribbon vertices) is kept in fixed size rings indexed by the
+ * segment's global index modulo the capacity, so memory and the cost of
+ * each frame stay the same no matter how far the track has been followed.
+ *
+ * Parameters and distances are doubles so they stay precise after hours of
+ * travel.
+ */
+public class EndlessTrack {
+    public static final int DEFAULT_CAPACITY = 64;
+    // samples of the rotation minimizing frame per segment
+    private static final int SAMPLES = 16;
+    // distance between generated control points, and how far from the origin they may go
+    private static final float STEP = 30;
+    private static final float BOUNDS = 490;
+    private static final float HALF_WIDTH = .5f;
+    private static final int FLOATS_PER_SEGMENT = Curve.COEFFICIENTS_PER_SEGMENT;
+
+    private int myCapacity;
+    // segments behind the follower that are kept before being retired
+    private int myBehind;
+    // retained segments are [myFirst .. myEnd), global indices
+    private long myFirst;
+    private long myEnd;
+    // control points generated so far, the last four are kept in myPoints
+    private long myPointCount;
+    private float[] myPoints = new float[12];
+    private float[] myCoefficients;
+    // distance along the track to the start of each segment, and to the end of the last
+    private double[] myStartDistance;
+    private double myEndDistance;
+    // SAMPLES + 1 unit normals per segment, packed as x, y, z triples
+    private float[] myNormals;
+    // SAMPLES + 1 pairs of ribbon edge vertices per segment
+    private float[] myVertices;
+    private TrackGenerator myGenerator;
+    private float[] myNextPoint = new float[3];
+    private float[] myScratch = new float[12];
+
+
+    /**
+     * Create a track with the default capacity, generated from the given seed.
+     */
+    public EndlessTrack (long seed) {
+        this(seed, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a track keeping at most the given number of segments, a quarter
+     * of them behind the follower and the rest ahead, generated from the
+     * given seed.
+     */
+    public EndlessTrack (long seed, int capacity) {
+        myCapacity = Math.max(4, capacity);
+        myBehind = myCapacity / 4;
+        myCoefficients = new float[myCapacity * FLOATS_PER_SEGMENT];
+        myStartDistance = new double[myCapacity];
+        myNormals = new float[myCapacity * 3 * (SAMPLES + 1)];
+        myVertices = new float[myCapacity * 6 * (SAMPLES + 1)];
+        myGenerator = new TrackGenerator(seed, STEP, BOUNDS);
+        // start at the origin heading away from the default camera
+        addPoint(0, 0, STEP);
+        addPoint(0, 0, 0);
+        advanceTo(0);
+    }
+
+    /**
+     * Returns the global index of the oldest segment still kept.
+     */
+    public long firstSegment () {
+        return myFirst;
+    }
+
+    /**
+     * Returns one past the global index of the newest segment.
+     */
+    public long endSegment () {
+        return myEnd;
+    }
+
+    /**
+     * Generates segments ahead of and retires segments behind parameter t,
+     * which must not be behind the first segment kept.  Call once per frame
+     * with the follower's parameter.
+     */
+    public void advanceTo (double t) {
+        long current = (long)Math.floor(t);
+        myFirst = Math.max(myFirst, Math.min(current - myBehind, myEnd));
+        while (myEnd - myFirst < myCapacity) {
+            addSegment();
+        }
+    }
+
+    /**
+     * Returns the distance along the track from its very beginning to parameter t.
+     */
+    public double distanceAtParameter (double t) {
+        t = clamp(t);
+        long segment = segmentAt(t);
+        return myStartDistance[slot(segment)] +
+               ArcLengthTable.segmentLength(myCoefficients, slot(segment), t - segment);
+    }
+
+    /**
+     * Returns the parameter of the point the given distance from the track's
+     * very beginning, clamped to the segments kept.
+     */
+    public double parameterAtDistance (double distance) {
+        long low = myFirst;
+        long high = myEnd - 1;
+        if (distance <= myStartDistance[slot(low)]) {
+            return low;
+        }
+        if (distance >= myEndDistance) {
+            return myEnd;
+        }
+        // binary search for the last segment starting at or before distance
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            if (myStartDistance[slot(mid)] <= distance) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        int k = slot(low);
+        double end = (low + 1 < myEnd) ? myStartDistance[slot(low + 1)] : myEndDistance;
+        double length = end - myStartDistance[k];
+        if (length <= 0) {
+            return low;
+        }
+        return low + ArcLengthTable.solveWithinSegment(myCoefficients, k, distance - myStartDistance[k], length);
+    }
+
+    /**
+     * Evaluates the point at parameter t, clamped to the segments kept, into result at offset.
+     */
+    public void evaluate (double t, float[] result, int offset) {
+        t = clamp(t);
+        long segment = segmentAt(t);
+        CubicSegments.evaluate(myCoefficients, slot(segment), (float)(t - segment), result, offset);
+    }
+
+    /**
+     * Evaluates the position, unit tangent, and rotation minimizing normal
+     * and binormal at parameter t, clamped to the segments kept, into the
+     * given frame.
+     */
+    public void evaluateFrame (double t, Frame frame) {
+        t = clamp(t);
+        long segment = segmentAt(t);
+        int k = slot(segment);
+        float u = (float)(t - segment);
+        float[] tangent = frame.tangent;
+        CubicSegments.evaluate(myCoefficients, k, u, frame.position, 0);
+        CubicSegments.derivative(myCoefficients, k, u, tangent, 0);
+        normalize(tangent, 0);
+        // blend the neighboring samples and remove what is left along the tangent
+        float sample = u * SAMPLES;
+        int i = Math.min((int)sample, SAMPLES - 1);
+        float f = sample - i;
+        int n = 3 * (k * (SAMPLES + 1) + i);
+        float[] normal = frame.normal;
+        for (int dim = 0; dim < 3; dim++) {
+            normal[dim] = myNormals[n + dim] + f * (myNormals[n + 3 + dim] - myNormals[n + dim]);
+        }
+        float along = normal[0] * tangent[0] + normal[1] * tangent[1] + normal[2] * tangent[2];
+        for (int dim = 0; dim < 3; dim++) {
+            normal[dim] -= along * tangent[dim];
+        }
+        normalize(normal, 0);
+        cross(tangent, normal, frame.binormal);
+    }
+
+    /**
+     * Draws every segment kept as a ribbon, red on the inside and green on the outside.
+     */
+    public void draw (GL2 gl) {
+        float[] v = myVertices;
+        gl.glBegin(GL2.GL_QUAD_STRIP);
+        {
+            for (long segment = myFirst; segment < myEnd; segment++) {
+                int start = 6 * (SAMPLES + 1) * slot(segment);
+                // a segment's first sample repeats the last one of the segment before
+                int first = (segment == myFirst) ? 0 : 1;
+                for (int k = start + 6 * first; k < start + 6 * (SAMPLES + 1); k += 6) {
+                    gl.glColor3f(1, 0, 0);
+                    gl.glVertex3f(v[k], v[k + 1], v[k + 2]);
+                    gl.glColor3f(0, 1, 0);
+                    gl.glVertex3f(v[k + 3], v[k + 4], v[k + 5]);
+                }
+            }
+        }
+        gl.glEnd();
+    }
+
+    // generate the control point needed for the next segment and compute
+    // everything about that segment, retiring the oldest when full
+    private void addSegment () {
+        if (myEnd - myFirst == myCapacity) {
+            myFirst++;
+        }
+        while (myPointCount < myEnd + 4) {
+            generatePoint();
+        }
+        long segment = myEnd;
+        int k = slot(segment);
+        computeSegment(k);
+        myStartDistance[k] = (segment == 0) ? 0 : myEndDistance;
+        myEndDistance = myStartDistance[k] + ArcLengthTable.segmentLength(myCoefficients, k, 1);
+        computeFrames(segment, k);
+        myEnd++;
+    }
+
+    // B-spline coefficients from the last four control points
+    private void computeSegment (int k) {
+        float[] p = myPoints;
+        int base = k * FLOATS_PER_SEGMENT;
+        for (int dim = 0; dim < 3; dim++, base += 4) {
+            float p0 = p[dim], p1 = p[3 + dim], p2 = p[6 + dim], p3 = p[9 + dim];
+            myCoefficients[base]     = (-p0 + 3 * p1 - 3 * p2 + p3) / 6.0f;
+            myCoefficients[base + 1] = (3 * p0 - 6 * p1 + 3 * p2) / 6.0f;
+            myCoefficients[base + 2] = (-3 * p0 + 3 * p2) / 6.0f;
+            myCoefficients[base + 3] = (p0 + 4 * p1 + p2) / 6.0f;
+        }
+    }
+
+    // propagate the rotation minimizing frame across the segment and build its ribbon vertices
+    private void computeFrames (long segment, int k) {
+        float[] x = myScratch;
+        int n = 3 * (SAMPLES + 1) * k;
+        sampleAt(k, 0, x, 0);
+        if (segment == 0) {
+            RotationMinimizingFrames.initialNormal(x, 3, myNormals, n);
+        }
+        else {
+            // continue from the end of the segment before
+            System.arraycopy(myNormals, 3 * (SAMPLES + 1) * slot(segment - 1) + 3 * SAMPLES, myNormals, n, 3);
+        }
+        addVertices(k, 0, x);
+        for (int i = 0; i < SAMPLES; i++) {
+            sampleAt(k, i + 1, x, 6);
+            RotationMinimizingFrames.reflect(x, myNormals, n + 3 * i, n + 3 * (i + 1));
+            System.arraycopy(x, 6, x, 0, 6);
+            addVertices(k, i + 1, x);
+        }
+    }
+
+    // write the position and unit tangent of the given sample of the segment in slot k
+    private void sampleAt (int k, int sample, float[] x, int offset) {
+        float u = sample / (float)SAMPLES;
+        CubicSegments.evaluate(myCoefficients, k, u, x, offset);
+        CubicSegments.derivative(myCoefficients, k, u, x, offset + 3);
+        normalize(x, offset + 3);
+    }
+
+    // ribbon edges of the given sample, whose position and tangent are at the start of x
+    private void addVertices (int k, int sample, float[] x) {
+        int n = 3 * ((SAMPLES + 1) * k + sample);
+        float nx = myNormals[n], ny = myNormals[n + 1], nz = myNormals[n + 2];
+        float bx = HALF_WIDTH * ((x[4] * nz) - (x[5] * ny));
+        float by = HALF_WIDTH * (-(x[3] * nz) + (x[5] * nx));
+        float bz = HALF_WIDTH * ((x[3] * ny) - (x[4] * nx));
+        int v = 2 * n;
+        myVertices[v]     = x[0] - bx;
+        myVertices[v + 1] = x[1] - by;
+        myVertices[v + 2] = x[2] - bz;
+        myVertices[v + 3] = x[0] + bx;
+        myVertices[v + 4] = x[1] + by;
+        myVertices[v + 5] = x[2] + bz;
+    }
+
+    // a random step from the last point that does not turn back on the track or leave the bounds
+    private void generatePoint () {
+        myGenerator.generate(myPoints, 6, 9, myNextPoint, 0, 1);
+        addPoint(myNextPoint[0], myNextPoint[1], myNextPoint[2]);
+    }
+
+    // shift the given point in as the newest of the last four
+    private void addPoint (float x, float y, float z) {
+        System.arraycopy(myPoints, 3, myPoints, 0, 9);
+        myPoints[9] = x;
+        myPoints[10] = y;
+        myPoints[11] = z;
+        myPointCount++;
+    }
+
+    // t limited to the segments kept
+    private double clamp (double t) {
+        return Math.max(myFirst, Math.min(t, myEnd));
+    }
+
+    // segment containing the clamped parameter t, the last one at the very end
+    private long segmentAt (double t) {
+        return Math.min((long)Math.floor(t), myEnd - 1);
+    }
+
+    private int slot (long segment) {
+        return (int)(segment % myCapacity);
+    }
+
+    private static void cross (float[] a, float[] b, float[] result) {
+        float x = (a[1] * b[2]) - (a[2] * b[1]);
+        float y = -(a[0] * b[2]) + (a[2] * b[0]);
+        float z = (a[0] * b[1]) - (a[1] * b[0]);
+        result[0] = x;
+        result[1] = y;
+        result[2] = z;
+    }
+
+    private static void normalize (float[] v, int k) {
+        float length = (float)Math.sqrt(v[k] * v[k] + v[k + 1] * v[k + 1] + v[k + 2] * v[k + 2]);
+        if (length > 0) {
+            v[k] /= length;
+            v[k + 1] /= length;
+            v[k + 2] /= length;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package framework;
+
+import java.util.Arrays;
+
+
+/**
+ * Reusable holder for the local coordinate frame of a curve at one point:
+ * its position along with the unit tangent, normal, and binormal there.
+ *
+ * Curves fill in a caller-supplied frame rather than returning new arrays
+ * so that code evaluating them every frame does not generate garbage.
+ */
+public class Frame {
+    public final float[] position = new float[3];
+    public final float[] tangent = new float[3];
+    public final float[] normal = new float[3];
+    public final float[] binormal = new float[3];
+
+    /**
+     * Copies all four vectors from the given frame into this one.
+     */
+    public void set (Frame other) {
+        System.arraycopy(other.position, 0, position, 0, 3);
+        System.arraycopy(other.tangent, 0, tangent, 0, 3);
+        System.arraycopy(other.normal, 0, normal, 0, 3);
+        System.arraycopy(other.binormal, 0, binormal, 0, 3);
+    }
+
+    /**
+     * Returns a string representation of the frame's vectors.
+     */
+    @Override
+    public String toString () {
+        return "position=" + Arrays.toString(position) +
+               " tangent=" + Arrays.toString(tangent) +
+               " normal=" + Arrays.toString(normal) +
+               " binormal=" + Arrays.toString(binormal);
+    }
+}
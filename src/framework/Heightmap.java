@@ -0,0 +1,62 @@
+package framework;
+
+/**
+ * A grid of heights between 0 and 1, columns across by rows deep, such as
+ * a terrain is built from.
+ */
+public class Heightmap {
+    private float[] myHeights;
+    private int myColumns;
+    private int myRows;
+
+
+    /**
+     * Create a heightmap over the given heights, stored a row at a time.
+     */
+    public Heightmap (float[] heights, int columns, int rows) {
+        if (columns < 2 || rows < 2 || heights.length < (long)columns * rows) {
+            throw new IllegalArgumentException("A heightmap needs at least 2 by 2 heights, not " + columns + " by " + rows);
+        }
+        myHeights = heights;
+        myColumns = columns;
+        myRows = rows;
+    }
+
+    /**
+     * Returns the luminance of the given image as heights, columns by rows,
+     * sampled between its pixels where the sizes differ, so a small image
+     * can make a finely sampled terrain.
+     */
+    public static Heightmap fromPixmap (Pixmap pixmap, int columns, int rows) {
+        return new Heightmap(pixmap.getLuminance(columns, rows), columns, rows);
+    }
+
+    /**
+     * Returns the number of heights across the map.
+     */
+    public int getColumns () {
+        return myColumns;
+    }
+
+    /**
+     * Returns the number of heights down the map.
+     */
+    public int getRows () {
+        return myRows;
+    }
+
+    /**
+     * Returns the height at the given column and row, or at the nearest
+     * edge if they are off the map.
+     */
+    public float get (int column, int row) {
+        column = Math.max(0, Math.min(column, myColumns - 1));
+        row = Math.max(0, Math.min(row, myRows - 1));
+        return myHeights[row * myColumns + column];
+    }
+
+    // the heights themselves, a row at a time, for reading many at once
+    float[] heights () {
+        return myHeights;
+    }
+}
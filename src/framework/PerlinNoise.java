@@ -0,0 +1,539 @@
+package framework;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Ken Perlin's improved noise, as in ImprovedNoise, but with a permutation
+ * table of its own for each seed, so different seeds give unrelated noise.
+ *
+ * Noise can be sampled in 2D or 3D, in floats or doubles; 2D noise is 3D
+ * noise at z = 0, computed with only the four corners that matter.  Octaves
+ * of noise can be summed as fractional Brownian motion (fBm), each octave
+ * lacunarity times the frequency and gain times the amplitude of the one
+ * before, or as ridged noise, which sums (1 - |noise|)^2 instead so it has
+ * sharp crests where the noise crosses zero.
+ *
+ * Grids of 2D samples are filled straight into primitive arrays, a row at a
+ * time so each row's share of the work is done once per row, with rows split
+ * across threads for large grids.  A grid holds exactly the values sampling
+ * each of its points one at a time would give.
+ *
+ * The reference noise uses ImprovedNoise's table, and its double samples
+ * are exactly ImprovedNoise's.
+ */
+public class PerlinNoise {
+    // the x, y, z of each of the 16 gradients picked by the low 4 bits of a hash,
+    // the 12 directions to the edges of a cube with 4 repeated, as ImprovedNoise.grad
+    private static final double[] GX = { 1, -1, 1, -1, 1, -1, 1, -1, 0, 0, 0, 0, 1, 0, -1, 0 };
+    private static final double[] GY = { 1, 1, -1, -1, 0, 0, 0, 0, 1, -1, 1, -1, 1, -1, 1, -1 };
+    private static final double[] GZ = { 0, 0, 0, 0, 1, 1, -1, -1, 1, 1, -1, -1, 0, 1, 0, -1 };
+    private static final float[] FLOAT_GX = toFloats(GX);
+    private static final float[] FLOAT_GY = toFloats(GY);
+    private static final float[] FLOAT_GZ = toFloats(GZ);
+    // fewest samples filled by each task
+    private static final int GRAIN = 1 << 14;
+
+    // the permutation of 0 .. 255, twice over so corner hashes need no wrapping
+    private final int[] myPermutation = new int[512];
+
+
+    /**
+     * Create noise with a permutation table shuffled from the given seed.
+     */
+    public PerlinNoise (long seed) {
+        int[] permutation = new int[256];
+        for (int i = 0; i < permutation.length; i++) {
+            permutation[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = permutation.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        setPermutation(permutation);
+    }
+
+    private PerlinNoise (int[] permutation) {
+        setPermutation(permutation);
+    }
+
+    /**
+     * Returns noise using ImprovedNoise's permutation table.
+     */
+    public static PerlinNoise reference () {
+        int[] permutation = new int[256];
+        System.arraycopy(ImprovedNoise.p, 0, permutation, 0, permutation.length);
+        return new PerlinNoise(permutation);
+    }
+
+    private void setPermutation (int[] permutation) {
+        for (int i = 0; i < 256; i++) {
+            myPermutation[i] = myPermutation[256 + i] = permutation[i];
+        }
+    }
+
+    /**
+     * Returns the noise at (x, y, z), between -1 and 1.
+     */
+    public double noise (double x, double y, double z) {
+        int xi = floor(x), yi = floor(y), zi = floor(z);
+        x -= xi;
+        y -= yi;
+        z -= zi;
+        double u = fade(x), v = fade(y), w = fade(z);
+        int[] p = myPermutation;
+        int A = p[xi & 255] + (yi & 255), AA = p[A] + (zi & 255), AB = p[A + 1] + (zi & 255);
+        int B = p[(xi & 255) + 1] + (yi & 255), BA = p[B] + (zi & 255), BB = p[B + 1] + (zi & 255);
+        return lerp(w, lerp(v, lerp(u, grad(p[AA], x, y, z), grad(p[BA], x - 1, y, z)),
+                               lerp(u, grad(p[AB], x, y - 1, z), grad(p[BB], x - 1, y - 1, z))),
+                       lerp(v, lerp(u, grad(p[AA + 1], x, y, z - 1), grad(p[BA + 1], x - 1, y, z - 1)),
+                               lerp(u, grad(p[AB + 1], x, y - 1, z - 1), grad(p[BB + 1], x - 1, y - 1, z - 1))));
+    }
+
+    /**
+     * Returns the noise at (x, y), which is the noise at (x, y, 0).
+     */
+    public double noise (double x, double y) {
+        int yi = floor(y);
+        y -= yi;
+        return noise(x, yi & 255, y, fade(y));
+    }
+
+    /**
+     * Returns the noise at (x, y, z) computed in floats.
+     */
+    public float noise (float x, float y, float z) {
+        int xi = floor(x), yi = floor(y), zi = floor(z);
+        x -= xi;
+        y -= yi;
+        z -= zi;
+        float u = fade(x), v = fade(y), w = fade(z);
+        int[] p = myPermutation;
+        int A = p[xi & 255] + (yi & 255), AA = p[A] + (zi & 255), AB = p[A + 1] + (zi & 255);
+        int B = p[(xi & 255) + 1] + (yi & 255), BA = p[B] + (zi & 255), BB = p[B + 1] + (zi & 255);
+        return lerp(w, lerp(v, lerp(u, grad(p[AA], x, y, z), grad(p[BA], x - 1, y, z)),
+                               lerp(u, grad(p[AB], x, y - 1, z), grad(p[BB], x - 1, y - 1, z))),
+                       lerp(v, lerp(u, grad(p[AA + 1], x, y, z - 1), grad(p[BA + 1], x - 1, y, z - 1)),
+                               lerp(u, grad(p[AB + 1], x, y - 1, z - 1), grad(p[BB + 1], x - 1, y - 1, z - 1))));
+    }
+
+    /**
+     * Returns the noise at (x, y) computed in floats.
+     */
+    public float noise (float x, float y) {
+        int yi = floor(y);
+        y -= yi;
+        return noise(x, yi & 255, y, fade(y));
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of noise at (x, y),
+     * starting at frequency and amplitude 1.
+     */
+    public double fbm (double x, double y, int octaves, double lacunarity, double gain) {
+        double sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * noise(x * frequency, y * frequency);
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of noise at (x, y, z).
+     */
+    public double fbm (double x, double y, double z, int octaves, double lacunarity, double gain) {
+        double sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * noise(x * frequency, y * frequency, z * frequency);
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of noise at (x, y) computed in floats.
+     */
+    public float fbm (float x, float y, int octaves, float lacunarity, float gain) {
+        float sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * noise(x * frequency, y * frequency);
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of noise at (x, y, z) computed in floats.
+     */
+    public float fbm (float x, float y, float z, int octaves, float lacunarity, float gain) {
+        float sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * noise(x * frequency, y * frequency, z * frequency);
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of ridged noise at
+     * (x, y), each between 0 and its amplitude and highest where the noise is 0.
+     */
+    public double ridged (double x, double y, int octaves, double lacunarity, double gain) {
+        double sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * ridge(noise(x * frequency, y * frequency));
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of ridged noise at (x, y, z).
+     */
+    public double ridged (double x, double y, double z, int octaves, double lacunarity, double gain) {
+        double sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * ridge(noise(x * frequency, y * frequency, z * frequency));
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of ridged noise at (x, y) computed in floats.
+     */
+    public float ridged (float x, float y, int octaves, float lacunarity, float gain) {
+        float sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * ridge(noise(x * frequency, y * frequency));
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the given number of octaves of ridged noise at (x, y, z) computed in floats.
+     */
+    public float ridged (float x, float y, float z, int octaves, float lacunarity, float gain) {
+        float sum = 0, frequency = 1, amplitude = 1;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * ridge(noise(x * frequency, y * frequency, z * frequency));
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        return sum;
+    }
+
+    /**
+     * Fills result with a grid of columns by rows samples of noise, the
+     * sample at (x0 + i * spacing, y0 + j * spacing) at index j * columns + i.
+     */
+    public void fillNoise (float[] result, int columns, int rows, float x0, float y0, float spacing) {
+        fillFbm(result, columns, rows, x0, y0, spacing, 1, 1, 1);
+    }
+
+    /**
+     * Fills result with a grid of samples of noise computed in doubles.
+     */
+    public void fillNoise (double[] result, int columns, int rows, double x0, double y0, double spacing) {
+        fillFbm(result, columns, rows, x0, y0, spacing, 1, 1, 1);
+    }
+
+    /**
+     * Fills result with a grid of samples of fBm, laid out as in fillNoise.
+     */
+    public void fillFbm (float[] result, int columns, int rows, float x0, float y0, float spacing,
+                         int octaves, float lacunarity, float gain) {
+        new GridTask(result, null, columns, 0, rows, x0, y0, spacing, octaves, lacunarity, gain, false).fill();
+    }
+
+    /**
+     * Fills result with a grid of samples of fBm computed in doubles.
+     */
+    public void fillFbm (double[] result, int columns, int rows, double x0, double y0, double spacing,
+                         int octaves, double lacunarity, double gain) {
+        new GridTask(null, result, columns, 0, rows, x0, y0, spacing, octaves, lacunarity, gain, false).fill();
+    }
+
+    /**
+     * Fills result with a grid of samples of ridged noise, laid out as in fillNoise.
+     */
+    public void fillRidged (float[] result, int columns, int rows, float x0, float y0, float spacing,
+                            int octaves, float lacunarity, float gain) {
+        new GridTask(result, null, columns, 0, rows, x0, y0, spacing, octaves, lacunarity, gain, true).fill();
+    }
+
+    /**
+     * Fills result with a grid of samples of ridged noise computed in doubles.
+     */
+    public void fillRidged (double[] result, int columns, int rows, double x0, double y0, double spacing,
+                            int octaves, double lacunarity, double gain) {
+        new GridTask(null, result, columns, 0, rows, x0, y0, spacing, octaves, lacunarity, gain, true).fill();
+    }
+
+    // 2D noise at x and a y whose cell is Y, offset within the cell fy, and fade v
+    private double noise (double x, int Y, double fy, double v) {
+        int xi = floor(x);
+        x -= xi;
+        double u = fade(x);
+        int[] p = myPermutation;
+        int A = p[xi & 255] + Y, B = p[(xi & 255) + 1] + Y;
+        // with z = 0 the far face of the cube fades to nothing, leaving the near four corners
+        return lerp(v, lerp(u, grad(p[p[A]], x, fy), grad(p[p[B]], x - 1, fy)),
+                       lerp(u, grad(p[p[A + 1]], x, fy - 1), grad(p[p[B + 1]], x - 1, fy - 1)));
+    }
+
+    private float noise (float x, int Y, float fy, float v) {
+        int xi = floor(x);
+        x -= xi;
+        float u = fade(x);
+        int[] p = myPermutation;
+        int A = p[xi & 255] + Y, B = p[(xi & 255) + 1] + Y;
+        return lerp(v, lerp(u, grad(p[p[A]], x, fy), grad(p[p[B]], x - 1, fy)),
+                       lerp(u, grad(p[p[A + 1]], x, fy - 1), grad(p[p[B + 1]], x - 1, fy - 1)));
+    }
+
+    // rows [first .. end) of a float grid, each sample computed just as noise(x, y) does,
+    // but with the work shared by a row or by the samples in one cell done once
+    private void fillRows (float[] result, int columns, int first, int end, float x0, float y0, float spacing,
+                           int octaves, float lacunarity, float gain, boolean ridged) {
+        int[] p = myPermutation;
+        for (int j = first; j < end; j++) {
+            int row = j * columns;
+            float y = y0 + j * spacing;
+            float frequency = 1, amplitude = 1;
+            for (int o = 0; o < octaves; o++) {
+                // the row's part of every sample, once per octave
+                float fy = y * frequency;
+                int yi = floor(fy);
+                fy -= yi;
+                float v = fade(fy);
+                int Y = yi & 255;
+                // the gradients at the corners of the current cell, and their y terms, once per cell
+                int cell = 0;
+                int h00 = 0, h10 = 0, h01 = 0, h11 = 0;
+                float y00 = 0, y10 = 0, y01 = 0, y11 = 0;
+                for (int i = 0; i < columns; i++) {
+                    float x = (x0 + i * spacing) * frequency;
+                    int xi = floor(x);
+                    if (i == 0 || xi != cell) {
+                        cell = xi;
+                        int A = p[xi & 255] + Y, B = p[(xi & 255) + 1] + Y;
+                        h00 = p[p[A]] & 15;
+                        h10 = p[p[B]] & 15;
+                        h01 = p[p[A + 1]] & 15;
+                        h11 = p[p[B + 1]] & 15;
+                        y00 = FLOAT_GY[h00] * fy;
+                        y10 = FLOAT_GY[h10] * fy;
+                        y01 = FLOAT_GY[h01] * (fy - 1);
+                        y11 = FLOAT_GY[h11] * (fy - 1);
+                    }
+                    x -= xi;
+                    float u = fade(x);
+                    float n = lerp(v, lerp(u, FLOAT_GX[h00] * x + y00, FLOAT_GX[h10] * (x - 1) + y10),
+                                  lerp(u, FLOAT_GX[h01] * x + y01, FLOAT_GX[h11] * (x - 1) + y11));
+                    float value = amplitude * (ridged ? ridge(n) : n);
+                    // the first octave is written over whatever the grid held
+                    result[row + i] = (o == 0) ? value : result[row + i] + value;
+                }
+                frequency *= lacunarity;
+                amplitude *= gain;
+            }
+        }
+    }
+
+    // rows [first .. end) of a double grid, each sample computed just as noise(x, y) does,
+    // but with the work shared by a row or by the samples in one cell done once
+    private void fillRows (double[] result, int columns, int first, int end, double x0, double y0, double spacing,
+                           int octaves, double lacunarity, double gain, boolean ridged) {
+        int[] p = myPermutation;
+        for (int j = first; j < end; j++) {
+            int row = j * columns;
+            double y = y0 + j * spacing;
+            double frequency = 1, amplitude = 1;
+            for (int o = 0; o < octaves; o++) {
+                // the row's part of every sample, once per octave
+                double fy = y * frequency;
+                int yi = floor(fy);
+                fy -= yi;
+                double v = fade(fy);
+                int Y = yi & 255;
+                // the gradients at the corners of the current cell, and their y terms, once per cell
+                int cell = 0;
+                int h00 = 0, h10 = 0, h01 = 0, h11 = 0;
+                double y00 = 0, y10 = 0, y01 = 0, y11 = 0;
+                for (int i = 0; i < columns; i++) {
+                    double x = (x0 + i * spacing) * frequency;
+                    int xi = floor(x);
+                    if (i == 0 || xi != cell) {
+                        cell = xi;
+                        int A = p[xi & 255] + Y, B = p[(xi & 255) + 1] + Y;
+                        h00 = p[p[A]] & 15;
+                        h10 = p[p[B]] & 15;
+                        h01 = p[p[A + 1]] & 15;
+                        h11 = p[p[B + 1]] & 15;
+                        y00 = GY[h00] * fy;
+                        y10 = GY[h10] * fy;
+                        y01 = GY[h01] * (fy - 1);
+                        y11 = GY[h11] * (fy - 1);
+                    }
+                    x -= xi;
+                    double u = fade(x);
+                    double n = lerp(v, lerp(u, GX[h00] * x + y00, GX[h10] * (x - 1) + y10),
+                                  lerp(u, GX[h01] * x + y01, GX[h11] * (x - 1) + y11));
+                    double value = amplitude * (ridged ? ridge(n) : n);
+                    // the first octave is written over whatever the grid held
+                    result[row + i] = (o == 0) ? value : result[row + i] + value;
+                }
+                frequency *= lacunarity;
+                amplitude *= gain;
+            }
+        }
+    }
+
+    private static int floor (double x) {
+        int i = (int)x;
+        return (x < i) ? i - 1 : i;
+    }
+
+    private static int floor (float x) {
+        int i = (int)x;
+        return (x < i) ? i - 1 : i;
+    }
+
+    private static double fade (double t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static float fade (float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static double lerp (double t, double a, double b) {
+        return a + t * (b - a);
+    }
+
+    private static float lerp (float t, float a, float b) {
+        return a + t * (b - a);
+    }
+
+    private static double grad (int hash, double x, double y, double z) {
+        int h = hash & 15;
+        return GX[h] * x + GY[h] * y + GZ[h] * z;
+    }
+
+    private static double grad (int hash, double x, double y) {
+        int h = hash & 15;
+        return GX[h] * x + GY[h] * y;
+    }
+
+    private static float grad (int hash, float x, float y, float z) {
+        int h = hash & 15;
+        return FLOAT_GX[h] * x + FLOAT_GY[h] * y + FLOAT_GZ[h] * z;
+    }
+
+    private static float grad (int hash, float x, float y) {
+        int h = hash & 15;
+        return FLOAT_GX[h] * x + FLOAT_GY[h] * y;
+    }
+
+    private static float[] toFloats (double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float)values[i];
+        }
+        return result;
+    }
+
+    private static double ridge (double n) {
+        double r = 1 - Math.abs(n);
+        return r * r;
+    }
+
+    private static float ridge (float n) {
+        float r = 1 - Math.abs(n);
+        return r * r;
+    }
+
+    // fills a range of rows of a float or double grid, splitting it across threads
+    private class GridTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] myFloats;
+        private final double[] myDoubles;
+        private final int myColumns;
+        private final int myFirst;
+        private final int myRows;
+        private final double myX0;
+        private final double myY0;
+        private final double mySpacing;
+        private final int myOctaves;
+        private final double myLacunarity;
+        private final double myGain;
+        private final boolean myRidged;
+
+        GridTask (float[] floats, double[] doubles, int columns, int first, int rows, double x0, double y0,
+                  double spacing, int octaves, double lacunarity, double gain, boolean ridged) {
+            myFloats = floats;
+            myDoubles = doubles;
+            myColumns = columns;
+            myFirst = first;
+            myRows = rows;
+            myX0 = x0;
+            myY0 = y0;
+            mySpacing = spacing;
+            myOctaves = octaves;
+            myLacunarity = lacunarity;
+            myGain = gain;
+            myRidged = ridged;
+        }
+
+        // fill the grid, on this thread if it is small
+        void fill () {
+            int length = (myFloats != null) ? myFloats.length : myDoubles.length;
+            if ((long)myColumns * myRows > length) {
+                throw new IllegalArgumentException(myColumns + " by " + myRows + " samples do not fit in " + length);
+            }
+            if ((long)myColumns * myRows <= GRAIN) {
+                compute();
+            }
+            else {
+                invoke();
+            }
+        }
+
+        @Override
+        protected void compute () {
+            if (myRows == 1 || (long)myColumns * myRows <= GRAIN) {
+                if (myFloats != null) {
+                    // float grids were given float arguments, so these casts are exact
+                    fillRows(myFloats, myColumns, myFirst, myFirst + myRows, (float)myX0, (float)myY0, (float)mySpacing,
+                             myOctaves, (float)myLacunarity, (float)myGain, myRidged);
+                }
+                else {
+                    fillRows(myDoubles, myColumns, myFirst, myFirst + myRows, myX0, myY0, mySpacing,
+                             myOctaves, myLacunarity, myGain, myRidged);
+                }
+                return;
+            }
+            int half = myRows / 2;
+            invokeAll(split(myFirst, half), split(myFirst + half, myRows - half));
+        }
+
+        private GridTask split (int first, int rows) {
+            return new GridTask(myFloats, myDoubles, myColumns, first, rows, myX0, myY0,
+                                mySpacing, myOctaves, myLacunarity, myGain, myRidged);
+        }
+    }
+}
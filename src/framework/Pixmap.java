@@ -4,8 +4,16 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.RecursiveAction;
 import javax.imageio.ImageIO;
 
 
@@ -14,6 +22,11 @@ import javax.imageio.ImageIO;
  *
  * Creating a pixmap requires a filename that should be a gif, png, or jpg image.
  *
+ * Whole images are best read with getPixels, getBytes or getLuminance
+ * rather than a pixel at a time with getColor: they read the image's
+ * samples straight from its raster when it is one of the common types, and
+ * work on bands of rows in parallel.
+ *
  * @author Robert C. Duvall
  * @author Owen Astrachan
  * @author Syam Gadde
@@ -22,6 +35,16 @@ public class Pixmap {
     public static final Dimension DEFAULT_SIZE = new Dimension(300, 300);
     public static final Color DEFAULT_COLOR = Color.BLACK;
     public static final String DEFAULT_NAME = "Default";
+    // pixels worked on by each task of a pass over the rows
+    private static final int GRAIN = 1 << 16;
+
+    /**
+     * Works on a band of rows, [firstRow .. lastRow).  Bands are worked on
+     * in parallel, so should not depend on each other.
+     */
+    public interface RowTask {
+        void process (int firstRow, int lastRow);
+    }
 
     private String myFileName;
     private BufferedImage myImage;
@@ -76,6 +99,118 @@ public class Pixmap {
         }
     }
 
+    /**
+     * Returns every pixel's color packed into an int as 0xAARRGGBB, like
+     * getColor(x, y).getRGB(), a row at a time.
+     */
+    public int[] getPixels () {
+        int[] pixels = new int[mySize.width * mySize.height];
+        processRows((firstRow, lastRow) -> readRows(firstRow, lastRow, pixels, firstRow * mySize.width));
+        return pixels;
+    }
+
+    /**
+     * Returns every pixel's red, green, blue and alpha as a byte each, a row
+     * at a time, as OpenGL takes GL_RGBA, GL_UNSIGNED_BYTE pixels.
+     */
+    public byte[] getBytes () {
+        int width = mySize.width;
+        byte[] bytes = new byte[4 * width * mySize.height];
+        processRows((firstRow, lastRow) -> {
+            int[] pixels = new int[(lastRow - firstRow) * width];
+            readRows(firstRow, lastRow, pixels, 0);
+            for (int i = 0, k = 4 * firstRow * width; i < pixels.length; i++, k += 4) {
+                int argb = pixels[i];
+                bytes[k] = (byte)(argb >> 16);
+                bytes[k + 1] = (byte)(argb >> 8);
+                bytes[k + 2] = (byte)argb;
+                bytes[k + 3] = (byte)(argb >>> 24);
+            }
+        });
+        return bytes;
+    }
+
+    /**
+     * Returns every pixel's luminance, between 0 and 1, a row at a time.
+     */
+    public float[] getLuminance () {
+        int width = mySize.width;
+        float[] luminance = new float[width * mySize.height];
+        processRows((firstRow, lastRow) -> {
+            int[] pixels = new int[(lastRow - firstRow) * width];
+            readRows(firstRow, lastRow, pixels, 0);
+            for (int i = 0, k = firstRow * width; i < pixels.length; i++, k++) {
+                luminance[k] = luminance(pixels[i]);
+            }
+        });
+        return luminance;
+    }
+
+    /**
+     * Returns the luminance of the image stretched or shrunk to the given
+     * number of columns and rows, blending the four pixels around each
+     * sample, a row at a time.  Used as heights, this lets a small image
+     * make a finely sampled terrain.
+     */
+    public float[] getLuminance (int columns, int rows) {
+        int width = mySize.width;
+        int height = mySize.height;
+        float[] luminance = getLuminance();
+        if (columns == width && rows == height) {
+            return luminance;
+        }
+        float[] result = new float[columns * rows];
+        float scaleX = (columns > 1) ? (float)(width - 1) / (columns - 1) : 0;
+        float scaleY = (rows > 1) ? (float)(height - 1) / (rows - 1) : 0;
+        // every row samples the same columns, so find each one's pixels and blend once
+        int[] left = new int[columns];
+        int[] right = new int[columns];
+        float[] blend = new float[columns];
+        for (int column = 0; column < columns; column++) {
+            float x = Math.min(column * scaleX, width - 1);
+            left[column] = Math.min((int)x, Math.max(width - 2, 0));
+            right[column] = Math.min(left[column] + 1, width - 1);
+            blend[column] = x - left[column];
+        }
+        processRows(rows, columns, (firstRow, lastRow) -> {
+            for (int row = firstRow; row < lastRow; row++) {
+                float y = Math.min(row * scaleY, height - 1);
+                int top = Math.min((int)y, Math.max(height - 2, 0)) * width;
+                int bottom = Math.min(top + width, (height - 1) * width);
+                float v = y - top / width;
+                for (int column = 0, k = row * columns; column < columns; column++, k++) {
+                    float u = blend[column];
+                    float above = luminance[top + left[column]] + u * (luminance[top + right[column]] - luminance[top + left[column]]);
+                    float below = luminance[bottom + left[column]] + u * (luminance[bottom + right[column]] - luminance[bottom + left[column]]);
+                    result[k] = above + v * (below - above);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs the given task over bands of this image's rows in parallel.
+     */
+    public void processRows (RowTask task) {
+        processRows(mySize.height, mySize.width, task);
+    }
+
+    /**
+     * Runs the given task over bands of the given number of rows, each
+     * columns wide, in parallel, returning once every band is done.
+     */
+    public static void processRows (int rows, int columns, RowTask task) {
+        int band = Math.max(1, GRAIN / Math.max(1, columns));
+        if (rows <= band) {
+            if (rows > 0) {
+                task.process(0, rows);
+            }
+            return;
+        }
+        new BandTask(task, 0, rows, band).invoke();
+    }
+
     /**
      * Paint the image on the canvas
      */
@@ -83,6 +218,65 @@ public class Pixmap {
         pen.drawImage(myImage, 0, 0, mySize.width, mySize.height, null);
     }
 
+    // writes the colors of rows [firstRow .. lastRow) as 0xAARRGGBB into result from start, read
+    // from the raster's own samples for the common types and through getRGB for any other
+    private void readRows (int firstRow, int lastRow, int[] result, int start) {
+        int width = mySize.width;
+        WritableRaster raster = myImage.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        boolean whole = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                        && buffer.getNumBanks() == 1;
+        int type = myImage.getType();
+        if (whole && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt)buffer).getData();
+            int stride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+            int alpha = (type == BufferedImage.TYPE_INT_RGB) ? 0xFF000000 : 0;
+            for (int y = firstRow, k = start; y < lastRow; y++) {
+                int p = buffer.getOffset() + y * stride;
+                for (int x = 0; x < width; x++) {
+                    result[k++] = data[p + x] | alpha;
+                }
+            }
+        }
+        else if (whole && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+                           || type == BufferedImage.TYPE_BYTE_GRAY)) {
+            byte[] data = ((DataBufferByte)buffer).getData();
+            ComponentSampleModel model = (ComponentSampleModel)raster.getSampleModel();
+            int pixelStride = model.getPixelStride();
+            int[] bands = model.getBandOffsets();
+            // gray is not stored as the sRGB value getRGB gives, so is looked up through the color model
+            int[] gray = (type == BufferedImage.TYPE_BYTE_GRAY) ? grayLookup(myImage.getColorModel()) : null;
+            for (int y = firstRow, k = start; y < lastRow; y++) {
+                int p = buffer.getOffset() + y * model.getScanlineStride();
+                for (int x = 0; x < width; x++, p += pixelStride) {
+                    if (gray != null) {
+                        result[k++] = gray[data[p + bands[0]] & 0xFF];
+                    }
+                    else {
+                        int a = (bands.length == 4) ? data[p + bands[3]] & 0xFF : 0xFF;
+                        result[k++] = (a << 24) | ((data[p + bands[0]] & 0xFF) << 16)
+                                      | ((data[p + bands[1]] & 0xFF) << 8) | (data[p + bands[2]] & 0xFF);
+                    }
+                }
+            }
+        }
+        else {
+            myImage.getRGB(0, firstRow, width, lastRow - firstRow, result, start, width);
+        }
+    }
+
+    private static int[] grayLookup (ColorModel model) {
+        int[] lookup = new int[256];
+        for (int g = 0; g < lookup.length; g++) {
+            lookup[g] = model.getRGB(new byte[] { (byte)g });
+        }
+        return lookup;
+    }
+
+    private static float luminance (int argb) {
+        return (.299f * ((argb >> 16) & 0xFF) + .587f * ((argb >> 8) & 0xFF) + .114f * (argb & 0xFF)) / 255;
+    }
+
     // returns true if the given point is a valid Pixmap value.
     private boolean isInBounds (int x, int y) {
         return (0 <= x && x < mySize.width) && (0 <= y && y < mySize.height);
@@ -101,4 +295,30 @@ public class Pixmap {
         myImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         mySize = new Dimension(width, height);
     }
+
+    // runs a task over a range of rows, splitting it across threads
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RowTask myTask;
+        private final int myFirst;
+        private final int myLast;
+        private final int myBand;
+
+        BandTask (RowTask task, int first, int last, int band) {
+            myTask = task;
+            myFirst = first;
+            myLast = last;
+            myBand = band;
+        }
+
+        @Override
+        protected void compute () {
+            if (myLast - myFirst <= myBand) {
+                myTask.process(myFirst, myLast);
+                return;
+            }
+            int middle = (myFirst + myLast) >>> 1;
+            invokeAll(new BandTask(myTask, myFirst, middle, myBand), new BandTask(myTask, middle, myLast, myBand));
+        }
+    }
 }
@@ -0,0 +1,235 @@
+package framework;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A growable list of 3D points packed into one array as x, y, z triples.
+ *
+ * Compared to a list of float[3], each point costs 12 bytes instead of an
+ * array object and a reference (roughly three times as much), and walking
+ * the points in order reads memory in order.  Point i is at index 3 * i of
+ * coordinates(), so code that reads many points can index that directly.
+ *
+ * A store can also read its points from a buffer, such as a memory mapped
+ * track file, without copying them.  The points are copied into an array
+ * the first time they are changed or coordinates() is called.
+ */
+public class PointStore implements Iterable<float[]> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private float[] myCoordinates;
+    private int mySize;
+    // where the points are read from until they are copied into myCoordinates
+    private FloatBuffer myBuffer;
+
+
+    /**
+     * Create an empty store.
+     */
+    public PointStore () {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty store with room for the given number of points.
+     */
+    public PointStore (int capacity) {
+        myCoordinates = new float[3 * Math.max(1, capacity)];
+    }
+
+    /**
+     * Create a store holding a copy of the other's points.
+     */
+    public PointStore (PointStore other) {
+        if (other.myBuffer != null) {
+            // the buffer is never written, so both can read it until either changes
+            myBuffer = other.myBuffer;
+        }
+        else {
+            myCoordinates = Arrays.copyOf(other.myCoordinates, Math.max(3, 3 * other.mySize));
+        }
+        mySize = other.mySize;
+    }
+
+    /**
+     * Create a store of the first size points packed in coordinates, which
+     * the store then owns, so the caller should not change it afterwards.
+     */
+    public PointStore (float[] coordinates, int size) {
+        if (size < 0 || 3 * size > coordinates.length) {
+            throw new IllegalArgumentException("size " + size + " does not fit " + coordinates.length + " coordinates");
+        }
+        myCoordinates = coordinates;
+        mySize = size;
+    }
+
+    /**
+     * Create a store of the first size points packed in the given buffer,
+     * read in place until the points are changed.  The buffer should not be
+     * changed while the store reads it.
+     */
+    public PointStore (FloatBuffer coordinates, int size) {
+        if (size < 0 || 3 * size > coordinates.remaining()) {
+            throw new IllegalArgumentException("size " + size + " does not fit " + coordinates.remaining() + " coordinates");
+        }
+        FloatBuffer points = coordinates.duplicate();
+        points.limit(points.position() + 3 * size);
+        myBuffer = points.slice();
+        mySize = size;
+    }
+
+    /**
+     * Returns the number of points.
+     */
+    public int size () {
+        return mySize;
+    }
+
+    /**
+     * Appends a point, returning its index.
+     */
+    public int add (float x, float y, float z) {
+        reserve(mySize + 1);
+        int k = 3 * mySize;
+        myCoordinates[k] = x;
+        myCoordinates[k + 1] = y;
+        myCoordinates[k + 2] = z;
+        return mySize++;
+    }
+
+    /**
+     * Appends a copy of the given point, returning its index.
+     */
+    public int add (float[] point) {
+        return add(point[0], point[1], point[2]);
+    }
+
+    /**
+     * Appends count points packed in the given array starting at offset.
+     */
+    public void addAll (float[] coordinates, int offset, int count) {
+        reserve(mySize + count);
+        System.arraycopy(coordinates, offset, myCoordinates, 3 * mySize, 3 * count);
+        mySize += count;
+    }
+
+    /**
+     * Replaces the point at index i.
+     */
+    public void set (int i, float x, float y, float z) {
+        int k = 3 * checkIndex(i);
+        copyBuffer();
+        myCoordinates[k] = x;
+        myCoordinates[k + 1] = y;
+        myCoordinates[k + 2] = z;
+    }
+
+    /**
+     * Returns a copy of the point at index i.
+     */
+    public float[] get (int i) {
+        float[] result = new float[3];
+        get(i, result, 0);
+        return result;
+    }
+
+    /**
+     * Writes the point at index i into result starting at offset.
+     */
+    public void get (int i, float[] result, int offset) {
+        int k = 3 * checkIndex(i);
+        if (myBuffer != null) {
+            result[offset] = myBuffer.get(k);
+            result[offset + 1] = myBuffer.get(k + 1);
+            result[offset + 2] = myBuffer.get(k + 2);
+        }
+        else {
+            System.arraycopy(myCoordinates, k, result, offset, 3);
+        }
+    }
+
+    /**
+     * Returns coordinate dim (0 for x, 1 for y, 2 for z) of the point at index i.
+     */
+    public float get (int i, int dim) {
+        int k = 3 * checkIndex(i) + dim;
+        return (myBuffer != null) ? myBuffer.get(k) : myCoordinates[k];
+    }
+
+    /**
+     * Returns the packed coordinates, point i at index 3 * i.  The array may
+     * be longer than the points need, is only valid until the next point is
+     * added, and should not be changed.  Points read from a buffer are
+     * copied into an array the first time this is called.
+     */
+    public float[] coordinates () {
+        copyBuffer();
+        return myCoordinates;
+    }
+
+    /**
+     * Returns a read only buffer over the packed coordinates of every point.
+     * Like coordinates(), it is only valid until the next point is added.
+     */
+    public FloatBuffer asFloatBuffer () {
+        if (myBuffer != null) {
+            return myBuffer.asReadOnlyBuffer();
+        }
+        return FloatBuffer.wrap(myCoordinates, 0, 3 * mySize).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Makes room for the given number of points without growing again.
+     */
+    public void reserve (int capacity) {
+        copyBuffer();
+        if (3 * capacity > myCoordinates.length) {
+            myCoordinates = Arrays.copyOf(myCoordinates, 3 * Math.max(capacity, 2 * myCoordinates.length / 3));
+        }
+    }
+
+    /**
+     * Returns an iterator over copies of the points, so the store cannot be
+     * changed through it.
+     */
+    @Override
+    public Iterator<float[]> iterator () {
+        return new Iterator<float[]>() {
+            private int myNext;
+
+            @Override
+            public boolean hasNext () {
+                return myNext < mySize;
+            }
+
+            @Override
+            public float[] next () {
+                if (myNext >= mySize) {
+                    throw new NoSuchElementException();
+                }
+                return get(myNext++);
+            }
+        };
+    }
+
+    // copy points read from a buffer into an array, before they change
+    private void copyBuffer () {
+        if (myBuffer != null) {
+            myCoordinates = new float[Math.max(3, 3 * mySize)];
+            myBuffer.get(0, myCoordinates, 0, 3 * mySize);
+            myBuffer = null;
+        }
+    }
+
+    // index checked against the points stored rather than the array's length
+    private int checkIndex (int i) {
+        if (i < 0 || i >= mySize) {
+            throw new IndexOutOfBoundsException("point " + i + " of " + mySize);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,94 @@
+package framework;
+
+import java.util.Arrays;
+import javax.media.opengl.GL2;
+
+
+/**
+ * A flat strip drawn along a tessellated curve, turned by the curve's
+ * rotation minimizing frames so it does not flip or spin.
+ *
+ * The strip's vertices are computed when the curve changes and reused by
+ * every draw after that.
+ */
+public class Ribbon {
+    private float myHalfWidth;
+    private float[] myLeftColor;
+    private float[] myRightColor;
+    // left and right edge vertices alternating, packed as x, y, z triples
+    private float[] myVertices = new float[0];
+    private int myCount;
+    private Frame myFrame = new Frame();
+
+
+    /**
+     * Create a ribbon of the given half width, colored along each edge.
+     */
+    public Ribbon (float halfWidth, float[] leftColor, float[] rightColor) {
+        myHalfWidth = halfWidth;
+        myLeftColor = leftColor;
+        myRightColor = rightColor;
+    }
+
+    /**
+     * Recomputes the ribbon's vertices along the given tessellation.
+     */
+    public void update (Tessellation tessellation, RotationMinimizingFrames frames) {
+        update(tessellation, frames, 0);
+    }
+
+    /**
+     * Recomputes the ribbon's vertices along the given tessellation from the
+     * given segment onward, keeping those before it.
+     */
+    public void update (Tessellation tessellation, RotationMinimizingFrames frames, int firstChangedSegment) {
+        int first = tessellation.segmentStart(Math.max(0, Math.min(firstChangedSegment, tessellation.numSegments())));
+        myCount = tessellation.size();
+        if (myVertices.length < 6 * myCount) {
+            myVertices = Arrays.copyOf(myVertices, Math.max(6 * myCount, 2 * myVertices.length));
+        }
+        float[] parameters = tessellation.getParameters();
+        float[] positions = tessellation.getPositions();
+        float[] binormal = myFrame.binormal;
+        for (int i = first; i < myCount; i++) {
+            frames.evaluate(parameters[i], myFrame);
+            for (int k = 0; k < 3; k++) {
+                float center = positions[3 * i + k];
+                float offset = myHalfWidth * binormal[k];
+                myVertices[6 * i + k] = center - offset;
+                myVertices[6 * i + 3 + k] = center + offset;
+            }
+        }
+    }
+
+    // the edge vertices, for saving the ribbon, and restoring them saved before
+    float[] vertices () {
+        return myVertices;
+    }
+
+    int size () {
+        return myCount;
+    }
+
+    void setVertices (float[] vertices, int count) {
+        myVertices = vertices;
+        myCount = count;
+    }
+
+    /**
+     * Draws the ribbon as a single strip.
+     */
+    public void draw (GL2 gl) {
+        float[] v = myVertices;
+        gl.glBegin(GL2.GL_QUAD_STRIP);
+        {
+            for (int k = 0; k < 6 * myCount; k += 6) {
+                gl.glColor3f(myLeftColor[0], myLeftColor[1], myLeftColor[2]);
+                gl.glVertex3f(v[k], v[k + 1], v[k + 2]);
+                gl.glColor3f(myRightColor[0], myRightColor[1], myRightColor[2]);
+                gl.glVertex3f(v[k + 3], v[k + 4], v[k + 5]);
+            }
+        }
+        gl.glEnd();
+    }
+}
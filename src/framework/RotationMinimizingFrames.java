@@ -0,0 +1,265 @@
+package framework;
+
+import java.util.Arrays;
+
+
+/**
+ * Table of rotation minimizing frames sampled along a curve.
+ *
+ * Unlike the Frenet frame, a rotation minimizing frame does not flip at
+ * inflection points or spin where the curve is nearly straight, so it is
+ * the natural orientation for a camera or a ribbon following the curve.
+ * Normals are propagated from sample to sample using the double reflection
+ * method (Wang, Juttler, Zheng, and Liu, 2008) when the table is built and
+ * are interpolated when looked up.
+ *
+ * On a closed curve the frame generally does not line up with itself after
+ * one trip around, so the mismatch is spread evenly along the curve as a
+ * gradual twist about the tangent.
+ *
+ * When segments are appended or changed, call update with the first changed
+ * segment and only the frames from that point on are recomputed.
+ */
+public class RotationMinimizingFrames {
+    public static final int DEFAULT_SAMPLES_PER_SEGMENT = 16;
+
+    private Curve myCurve;
+    private int mySamplesPerSegment;
+    // unit normal at each sample, packed as x, y, z triples
+    private float[] myNormals = new float[0];
+    private int mySegments;
+    // twist needed to close the loop, zero for open curves
+    private float myClosingAngle;
+    // scratch for building and bulk lookups
+    private float[] myScratch = new float[12];
+
+
+    /**
+     * Create frames sampled at the default density along the given curve.
+     */
+    public RotationMinimizingFrames (Curve curve) {
+        this(curve, DEFAULT_SAMPLES_PER_SEGMENT);
+    }
+
+    /**
+     * Create frames sampled the given number of times per segment of the curve.
+     */
+    public RotationMinimizingFrames (Curve curve, int samplesPerSegment) {
+        myCurve = curve;
+        mySamplesPerSegment = Math.max(1, samplesPerSegment);
+        update(0);
+    }
+
+    // frames along the given curve restored from normals computed before
+    RotationMinimizingFrames (Curve curve, int samplesPerSegment, float[] normals, int segments, float closingAngle) {
+        myCurve = curve;
+        mySamplesPerSegment = samplesPerSegment;
+        myNormals = normals;
+        mySegments = segments;
+        myClosingAngle = closingAngle;
+    }
+
+    /**
+     * Returns the number of samples taken per segment of the curve.
+     */
+    public int getSamplesPerSegment () {
+        return mySamplesPerSegment;
+    }
+
+    // the number of segments sampled, the normals, and the closing twist, for saving the frames
+    int numSegments () {
+        return mySegments;
+    }
+
+    float[] normals () {
+        return myNormals;
+    }
+
+    float closingAngle () {
+        return myClosingAngle;
+    }
+
+    /**
+     * Recomputes the frames of all segments starting with the given one,
+     * also picking up any segments added to the curve since the last update.
+     */
+    public void update (int firstChangedSegment) {
+        float[] c = myCurve.coefficients();
+        int segments = myCurve.numSegments();
+        if (segments == 0) {
+            mySegments = 0;
+            return;
+        }
+        int samples = segments * mySamplesPerSegment + 1;
+        if (myNormals.length < samples * 3) {
+            myNormals = Arrays.copyOf(myNormals, Math.max(samples * 3, 2 * myNormals.length));
+        }
+        int first = Math.max(0, Math.min(firstChangedSegment, mySegments)) * mySamplesPerSegment;
+        float[] x = myScratch;
+        sampleAt(c, first, x, 0, x, 3);
+        if (first == 0) {
+            initialNormal(x, 3, myNormals, 0);
+        }
+        for (int i = first; i < samples - 1; i++) {
+            // x holds this sample's position and unit tangent, fill in the next ones
+            sampleAt(c, i + 1, x, 6, x, 9);
+            reflect(x, myNormals, 3 * i, 3 * (i + 1));
+            System.arraycopy(x, 6, x, 0, 6);
+        }
+        mySegments = segments;
+        myClosingAngle = myCurve.isClosed() ? closingAngle(c) : 0;
+    }
+
+    /**
+     * Evaluates the position, unit tangent, and rotation minimizing normal
+     * and binormal at parameter t into the given frame.
+     */
+    public void evaluate (float t, Frame frame) {
+        evaluate(t, frame.position, frame.tangent, frame.normal, frame.binormal, 0);
+    }
+
+    /**
+     * Evaluates the frame at count parameters, beginning at start and advancing
+     * by step, packing each quantity as x, y, z triples into its own array.
+     * Pass null for any quantity that is not needed.
+     */
+    public void evaluateRange (float start, float step, int count,
+                               float[] positions, float[] tangents, float[] normals, float[] binormals) {
+        float[] scratch = myScratch;
+        for (int i = 0; i < count; i++) {
+            int k = 3 * i;
+            evaluate(start + i * step,
+                     positions == null ? scratch : positions,
+                     tangents == null ? scratch : tangents,
+                     normals == null ? scratch : normals,
+                     binormals == null ? scratch : binormals,
+                     k);
+        }
+    }
+
+    // evaluate into the given arrays at offset, when an array is the shared
+    // scratch array the quantity is still computed but written at its start
+    private void evaluate (float t, float[] position, float[] tangent, float[] normal, float[] binormal, int offset) {
+        float[] c = myCurve.coefficients();
+        int segment = CubicSegments.segmentAt(myCurve, t);
+        float u = CubicSegments.localParameter(myCurve, t);
+        float[] scratch = myScratch;
+        int p = (position == scratch) ? 0 : offset;
+        int tk = (tangent == scratch) ? 3 : offset;
+        int nk = (normal == scratch) ? 6 : offset;
+        int bk = (binormal == scratch) ? 9 : offset;
+        CubicSegments.evaluate(c, segment, u, position, p);
+        CubicSegments.derivative(c, segment, u, tangent, tk);
+        normalize(tangent, tk);
+        float tx = tangent[tk], ty = tangent[tk + 1], tz = tangent[tk + 2];
+        // blend the neighboring samples
+        float sample = u * mySamplesPerSegment;
+        int i = Math.min((int)sample, mySamplesPerSegment - 1);
+        float f = sample - i;
+        int k = 3 * (segment * mySamplesPerSegment + i);
+        float nx = myNormals[k]     + f * (myNormals[k + 3] - myNormals[k]);
+        float ny = myNormals[k + 1] + f * (myNormals[k + 4] - myNormals[k + 1]);
+        float nz = myNormals[k + 2] + f * (myNormals[k + 5] - myNormals[k + 2]);
+        if (myClosingAngle != 0) {
+            // twist a fraction of the way towards closing the loop
+            float angle = myClosingAngle * (segment + u) / mySegments;
+            float cos = (float)Math.cos(angle);
+            float sin = (float)Math.sin(angle);
+            float cx = (ty * nz) - (tz * ny);
+            float cy = -(tx * nz) + (tz * nx);
+            float cz = (tx * ny) - (ty * nx);
+            nx = nx * cos + cx * sin;
+            ny = ny * cos + cy * sin;
+            nz = nz * cos + cz * sin;
+        }
+        // remove what is left along the tangent after blending
+        float along = nx * tx + ny * ty + nz * tz;
+        nx -= along * tx;
+        ny -= along * ty;
+        nz -= along * tz;
+        float length = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        normal[nk] = nx;
+        normal[nk + 1] = ny;
+        normal[nk + 2] = nz;
+        binormal[bk] = (ty * nz) - (tz * ny);
+        binormal[bk + 1] = -(tx * nz) + (tz * nx);
+        binormal[bk + 2] = (tx * ny) - (ty * nx);
+    }
+
+    // write the position and unit tangent of the given sample
+    private void sampleAt (float[] c, int sample, float[] position, int p, float[] tangent, int t) {
+        int segment = Math.min(sample / mySamplesPerSegment, myCurve.numSegments() - 1);
+        float u = (sample - segment * mySamplesPerSegment) / (float)mySamplesPerSegment;
+        CubicSegments.evaluate(c, segment, u, position, p);
+        CubicSegments.derivative(c, segment, u, tangent, t);
+        normalize(tangent, t);
+    }
+
+    // double reflection: x holds position and tangent at 0 and 3 for this sample
+    // and at 6 and 9 for the next, find the next normal from this one
+    static void reflect (float[] x, float[] normals, int from, int to) {
+        float v1x = x[6] - x[0], v1y = x[7] - x[1], v1z = x[8] - x[2];
+        float c1 = v1x * v1x + v1y * v1y + v1z * v1z;
+        float rx = normals[from], ry = normals[from + 1], rz = normals[from + 2];
+        float tx = x[3], ty = x[4], tz = x[5];
+        if (c1 > 0) {
+            // reflect the normal and tangent across the plane bisecting the two samples
+            float dr = 2 * (v1x * rx + v1y * ry + v1z * rz) / c1;
+            float dt = 2 * (v1x * tx + v1y * ty + v1z * tz) / c1;
+            rx -= dr * v1x; ry -= dr * v1y; rz -= dr * v1z;
+            tx -= dt * v1x; ty -= dt * v1y; tz -= dt * v1z;
+        }
+        // then reflect again so the reflected tangent lands on the next tangent
+        float v2x = x[9] - tx, v2y = x[10] - ty, v2z = x[11] - tz;
+        float c2 = v2x * v2x + v2y * v2y + v2z * v2z;
+        if (c2 > 0) {
+            float dr = 2 * (v2x * rx + v2y * ry + v2z * rz) / c2;
+            rx -= dr * v2x; ry -= dr * v2y; rz -= dr * v2z;
+        }
+        float length = (float)Math.sqrt(rx * rx + ry * ry + rz * rz);
+        normals[to] = rx / length;
+        normals[to + 1] = ry / length;
+        normals[to + 2] = rz / length;
+    }
+
+    // signed angle about the starting tangent from the last normal back to the first
+    private float closingAngle (float[] c) {
+        float[] t = myScratch;
+        CubicSegments.derivative(c, 0, 0, t, 0);
+        normalize(t, 0);
+        int last = 3 * mySegments * mySamplesPerSegment;
+        float ex = myNormals[last], ey = myNormals[last + 1], ez = myNormals[last + 2];
+        float sx = myNormals[0], sy = myNormals[1], sz = myNormals[2];
+        float cos = ex * sx + ey * sy + ez * sz;
+        // (end x start) . tangent
+        float sin = ((ey * sz) - (ez * sy)) * t[0] + (-(ex * sz) + (ez * sx)) * t[1] + ((ex * sy) - (ey * sx)) * t[2];
+        return (float)Math.atan2(sin, cos);
+    }
+
+    // start with world up flattened against the tangent, or x when the tangent is nearly vertical
+    static void initialNormal (float[] tangent, int t, float[] normal, int n) {
+        float tx = tangent[t], ty = tangent[t + 1], tz = tangent[t + 2];
+        float ux = 0, uy = 1, uz = 0;
+        if (Math.abs(ty) > 0.99f) {
+            ux = 1;
+            uy = 0;
+        }
+        float along = ux * tx + uy * ty + uz * tz;
+        normal[n] = ux - along * tx;
+        normal[n + 1] = uy - along * ty;
+        normal[n + 2] = uz - along * tz;
+        normalize(normal, n);
+    }
+
+    private static void normalize (float[] v, int k) {
+        float length = (float)Math.sqrt(v[k] * v[k] + v[k + 1] * v[k + 1] + v[k + 2] * v[k + 2]);
+        if (length > 0) {
+            v[k] /= length;
+            v[k + 1] /= length;
+            v[k + 2] /= length;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package framework;
+
+import java.util.Arrays;
+
+
+/**
+ * Bounding volume hierarchy over the segments of a curve, for finding the
+ * segments near a point or inside a box without looking at every segment.
+ *
+ * Each segment is bounded by the box around its four Bezier control points,
+ * which contains the segment by the convex hull property, and the boxes are
+ * merged pairwise into a complete binary tree stored in one array: node 1
+ * is the root, node i has children 2i and 2i+1, and segment s is the leaf
+ * at capacity + s.  Since neighboring segments are near each other, the
+ * curve's own order makes a good tree without any sorting.
+ *
+ * When segments are appended or changed, call update with the first changed
+ * segment and only those leaves and their ancestors are refit; the tree
+ * doubles its capacity when it runs out of leaves.
+ *
+ * The closest point on the curve is found by branch and bound: nodes are
+ * visited nearest first and skipped once their box is farther away than
+ * the best point found so far, and within each segment reached the point
+ * is refined from the nearest of a few samples with Newton's method.
+ */
+public class SegmentTree {
+    // floats per node: min x, y, z then max x, y, z
+    private static final int BOX = 6;
+    // parameters sampled across a segment to start Newton's method from the best one
+    private static final int SAMPLES = 8;
+    private static final int MAX_ITERATIONS = 16;
+    private static final float TOLERANCE = 1e-6f;
+
+    private Curve myCurve;
+    private int myCapacity;
+    private int mySegments;
+    private float[] myBoxes;
+    // nodes waiting to be visited by a query, never more than the tree is deep
+    private int[] myStack = new int[64];
+    private Search mySearch = new Search();
+
+
+    /**
+     * Create a tree over the segments of the given curve.
+     */
+    public SegmentTree (Curve curve) {
+        myCurve = curve;
+        allocate(1);
+        update(0);
+    }
+
+    /**
+     * Refits the boxes of all segments starting with the given one, also
+     * picking up any segments added to the curve since the last update.
+     */
+    public void update (int firstChangedSegment) {
+        float[] c = myCurve.coefficients();
+        int segments = myCurve.numSegments();
+        int first = Math.max(0, Math.min(firstChangedSegment, mySegments));
+        if (segments > myCapacity) {
+            int capacity = myCapacity;
+            while (capacity < segments) {
+                capacity *= 2;
+            }
+            allocate(capacity);
+            first = 0;
+        }
+        else if (segments < mySegments) {
+            // empty the leaves no longer in use
+            emptyNodes(myCapacity + segments, myCapacity + mySegments);
+            first = Math.min(first, segments);
+        }
+        for (int i = first; i < segments; i++) {
+            segmentBox(c, i, myBoxes, BOX * (myCapacity + i));
+        }
+        int last = Math.max(segments, mySegments);
+        mySegments = segments;
+        if (first < last) {
+            refit(myCapacity + first, myCapacity + last - 1);
+        }
+    }
+
+    /**
+     * Returns the number of segments in the tree.
+     */
+    public int numSegments () {
+        return mySegments;
+    }
+
+    /**
+     * Writes the box around the whole curve into result as min x, y, z then max x, y, z.
+     */
+    public void getBounds (float[] result) {
+        System.arraycopy(myBoxes, BOX, result, 0, BOX);
+    }
+
+    /**
+     * Writes the box around the given segment into result as min x, y, z then max x, y, z.
+     */
+    public void getSegmentBounds (int segment, float[] result) {
+        System.arraycopy(myBoxes, BOX * (myCapacity + segment), result, 0, BOX);
+    }
+
+    /**
+     * Finds the segments whose boxes overlap the box from min to max, writing
+     * as many as fit into result in increasing order and returning how many
+     * there are in all.
+     */
+    public int findOverlapping (float[] min, float[] max, int[] result) {
+        int count = 0;
+        int top = 0;
+        myStack[top++] = 1;
+        while (top > 0) {
+            int node = myStack[--top];
+            int k = BOX * node;
+            if (myBoxes[k] > max[0] || myBoxes[k + 1] > max[1] || myBoxes[k + 2] > max[2] ||
+                myBoxes[k + 3] < min[0] || myBoxes[k + 4] < min[1] || myBoxes[k + 5] < min[2]) {
+                continue;
+            }
+            if (node >= myCapacity) {
+                if (count < result.length) {
+                    result[count] = node - myCapacity;
+                }
+                count++;
+            }
+            else {
+                // visit the left child first so segments come out in order
+                myStack[top++] = 2 * node + 1;
+                myStack[top++] = 2 * node;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the parameter of the point on the curve closest to the given
+     * point, or 0 when the curve has no segments.
+     */
+    public float closestParameter (float[] point) {
+        mySearch.find(point[0], point[1], point[2]);
+        return mySearch.getParameter();
+    }
+
+    /**
+     * Returns the distance from the given point to the closest point on the
+     * curve, or infinity when the curve has no segments.
+     */
+    public float distanceTo (float[] point) {
+        mySearch.find(point[0], point[1], point[2]);
+        return (float)Math.sqrt(mySearch.getDistanceSquared());
+    }
+
+    /**
+     * Returns the squared distance from the point to the box of the given
+     * node, zero when the point is inside and infinite when the node is empty.
+     */
+    float distanceSquared (int node, float x, float y, float z) {
+        int k = BOX * node;
+        if (myBoxes[k] > myBoxes[k + 3]) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float dx = Math.max(0, Math.max(myBoxes[k] - x, x - myBoxes[k + 3]));
+        float dy = Math.max(0, Math.max(myBoxes[k + 1] - y, y - myBoxes[k + 4]));
+        float dz = Math.max(0, Math.max(myBoxes[k + 2] - z, z - myBoxes[k + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Returns new state for searching for closest points independently of
+     * other threads; closestParameter and distanceTo share one.
+     */
+    Search newSearch () {
+        return new Search();
+    }
+
+    // recompute the boxes of the ancestors of leaves [from .. to]
+    private void refit (int from, int to) {
+        while (from > 1) {
+            from /= 2;
+            to /= 2;
+            for (int node = from; node <= to; node++) {
+                merge(2 * node, 2 * node + 1, node);
+            }
+        }
+    }
+
+    private void merge (int left, int right, int node) {
+        int a = BOX * left;
+        int b = BOX * right;
+        int k = BOX * node;
+        for (int dim = 0; dim < 3; dim++) {
+            myBoxes[k + dim] = Math.min(myBoxes[a + dim], myBoxes[b + dim]);
+            myBoxes[k + 3 + dim] = Math.max(myBoxes[a + 3 + dim], myBoxes[b + 3 + dim]);
+        }
+    }
+
+    // start over with room for the given number of leaves, all empty
+    private void allocate (int capacity) {
+        myCapacity = capacity;
+        myBoxes = new float[BOX * 2 * capacity];
+        emptyNodes(0, 2 * capacity);
+        mySegments = 0;
+    }
+
+    // give nodes [from .. to) boxes that overlap nothing
+    private void emptyNodes (int from, int to) {
+        for (int node = from; node < to; node++) {
+            int k = BOX * node;
+            Arrays.fill(myBoxes, k, k + 3, Float.POSITIVE_INFINITY);
+            Arrays.fill(myBoxes, k + 3, k + 6, Float.NEGATIVE_INFINITY);
+        }
+    }
+
+    // box around the segment's Bezier control points, found from its power
+    // basis and padded a little so rounding cannot leave the curve outside it
+    private static void segmentBox (float[] c, int segment, float[] box, int k) {
+        int base = segment * Curve.COEFFICIENTS_PER_SEGMENT;
+        for (int dim = 0; dim < 3; dim++, base += 4) {
+            float a = c[base], b = c[base + 1], s = c[base + 2], d = c[base + 3];
+            float p1 = d + s / 3;
+            float p2 = d + (2 * s + b) / 3;
+            float p3 = a + b + s + d;
+            float low = Math.min(Math.min(d, p1), Math.min(p2, p3));
+            float high = Math.max(Math.max(d, p1), Math.max(p2, p3));
+            float pad = 1e-5f * (Math.abs(low) + Math.abs(high));
+            box[k + dim] = low - pad;
+            box[k + 3 + dim] = high + pad;
+        }
+    }
+
+    // the state of closest point searches, one per thread searching at once
+    class Search {
+        // nodes waiting to be visited, never more than the tree is deep
+        private int[] myStack = new int[64];
+        // point, first and second derivatives for refining closest points
+        private float[] myScratch = new float[9];
+        private float[] mySamples = new float[SAMPLES + 1];
+        private float myParameter;
+        private float myDistanceSquared;
+
+        float getParameter () {
+            return myParameter;
+        }
+
+        float getDistanceSquared () {
+            return myDistanceSquared;
+        }
+
+        // branch and bound for the closest point, leaving it in myParameter
+        // and myDistanceSquared
+        void find (float x, float y, float z) {
+            float[] c = myCurve.coefficients();
+            myParameter = 0;
+            myDistanceSquared = Float.POSITIVE_INFINITY;
+            int top = 0;
+            myStack[top++] = 1;
+            while (top > 0) {
+                int node = myStack[--top];
+                if (distanceSquared(node, x, y, z) >= myDistanceSquared) {
+                    continue;
+                }
+                if (node >= myCapacity) {
+                    closestInSegment(c, node - myCapacity, x, y, z);
+                }
+                else {
+                    // push the farther child first so the nearer one is visited next
+                    int left = 2 * node;
+                    int right = left + 1;
+                    if (distanceSquared(left, x, y, z) <= distanceSquared(right, x, y, z)) {
+                        myStack[top++] = right;
+                        myStack[top++] = left;
+                    }
+                    else {
+                        myStack[top++] = left;
+                        myStack[top++] = right;
+                    }
+                }
+            }
+        }
+
+        // refine the closest point within one segment, keeping it if it is the best so far
+        private void closestInSegment (float[] c, int segment, float x, float y, float z) {
+            float[] samples = mySamples;
+            for (int i = 0; i <= SAMPLES; i++) {
+                samples[i] = distanceSquaredAt(c, segment, i / (float)SAMPLES, x, y, z);
+            }
+            // a segment can pass near the point more than once, so refine around
+            // every sample nearer than its neighbors
+            for (int i = 0; i <= SAMPLES; i++) {
+                if ((i > 0 && samples[i - 1] < samples[i]) || (i < SAMPLES && samples[i + 1] < samples[i])) {
+                    continue;
+                }
+                float u = i / (float)SAMPLES;
+                float best = samples[i];
+                // the closest point lies between it and the neighboring sample downhill
+                float f = slopeOfDistance(c, segment, u, x, y, z);
+                float low = (f > 0) ? Math.max(0, u - 1f / SAMPLES) : u;
+                float high = (f > 0) ? u : Math.min(1, u + 1f / SAMPLES);
+                if (low < high) {
+                    float refined = refine(c, segment, low, high, x, y, z);
+                    float d = distanceSquaredAt(c, segment, refined, x, y, z);
+                    if (d < best) {
+                        best = d;
+                        u = refined;
+                    }
+                }
+                if (best < myDistanceSquared) {
+                    myDistanceSquared = best;
+                    myParameter = segment + u;
+                }
+            }
+        }
+
+        // find where the distance to the point is least within [low .. high] by
+        // solving (P(u) - point) . P'(u) = 0 with Newton's method kept within a
+        // shrinking bracket around the root, or by golden section search when
+        // the ends do not bracket a root
+        private float refine (float[] c, int segment, float low, float high, float x, float y, float z) {
+            float[] p = myScratch;
+            if (slopeOfDistance(c, segment, low, x, y, z) >= 0 || slopeOfDistance(c, segment, high, x, y, z) <= 0) {
+                return goldenSection(c, segment, low, high, x, y, z);
+            }
+            float u = 0.5f * (low + high);
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                float f = slopeOfDistance(c, segment, u, x, y, z);
+                if (f < 0) {
+                    low = u;
+                }
+                else {
+                    high = u;
+                }
+                float dx = p[0] - x, dy = p[1] - y, dz = p[2] - z;
+                float slope = p[3] * p[3] + p[4] * p[4] + p[5] * p[5] + dx * p[6] + dy * p[7] + dz * p[8];
+                float next = (slope > 0) ? u - f / slope : low - 1;
+                // fall back to bisection when Newton's step leaves the bracket
+                next = (next >= low && next <= high) ? next : 0.5f * (low + high);
+                float step = Math.abs(next - u);
+                u = next;
+                if (step < TOLERANCE) {
+                    break;
+                }
+            }
+            return u;
+        }
+
+        private float goldenSection (float[] c, int segment, float low, float high, float x, float y, float z) {
+            final float ratio = 0.618034f;
+            float a = high - ratio * (high - low);
+            float b = low + ratio * (high - low);
+            float da = distanceSquaredAt(c, segment, a, x, y, z);
+            float db = distanceSquaredAt(c, segment, b, x, y, z);
+            while (high - low > TOLERANCE) {
+                if (da < db) {
+                    high = b;
+                    b = a;
+                    db = da;
+                    a = high - ratio * (high - low);
+                    da = distanceSquaredAt(c, segment, a, x, y, z);
+                }
+                else {
+                    low = a;
+                    a = b;
+                    da = db;
+                    b = low + ratio * (high - low);
+                    db = distanceSquaredAt(c, segment, b, x, y, z);
+                }
+            }
+            return 0.5f * (low + high);
+        }
+
+        // (P(u) - point) . P'(u), half the derivative of the squared distance,
+        // leaving the point and its derivatives in myScratch
+        private float slopeOfDistance (float[] c, int segment, float u, float x, float y, float z) {
+            float[] p = myScratch;
+            CubicSegments.evaluate(c, segment, u, p, 0);
+            CubicSegments.derivative(c, segment, u, p, 3);
+            CubicSegments.secondDerivative(c, segment, u, p, 6);
+            return (p[0] - x) * p[3] + (p[1] - y) * p[4] + (p[2] - z) * p[5];
+        }
+
+        private float distanceSquaredAt (float[] c, int segment, float u, float x, float y, float z) {
+            float[] p = myScratch;
+            CubicSegments.evaluate(c, segment, u, p, 0);
+            float dx = p[0] - x, dy = p[1] - y, dz = p[2] - z;
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+}
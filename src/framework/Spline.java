@@ -2,8 +2,7 @@ package framework;
 
 import com.jogamp.opengl.util.gl2.GLUT;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.nio.FloatBuffer;
 import java.util.*;
 import javax.media.opengl.GL2;
 
@@ -15,9 +14,38 @@ import javax.media.opengl.GL2;
  *
  * modified by eli
  */
-public class Spline implements Iterable<float[]> {
-
-    private List<float[]> myControlPoints = new ArrayList<>();
+public class Spline implements Iterable<float[]>, Curve {
+
+    // number of results staged at a time when evaluating into buffers
+    private static final int BATCH_SIZE = 256;
+
+    private PointStore myControlPoints = new PointStore();
+    private TrackGenerator myGenerator = new TrackGenerator(TrackGenerator.DEFAULT_SEED);
+    // power basis coefficients of each segment, see coefficients()
+    private float[] myCoefficients = new float[0];
+    private int myCoefficientPoints;
+    private int myValidSegments;
+    // built on first use, then updated from the first segment changed since
+    private ArcLengthTable myArcLengths;
+    private int myArcLengthsChangedFrom;
+    // likewise for the rotation minimizing frames
+    private RotationMinimizingFrames myFrames;
+    private int myFramesChangedFrom;
+    private int myFrameDensity = RotationMinimizingFrames.DEFAULT_SAMPLES_PER_SEGMENT;
+    // likewise for the bounding volume hierarchy
+    private SegmentTree mySegmentTree;
+    private int mySegmentTreeChangedFrom;
+    // likewise for the adaptive tessellation, and the ribbon drawn along it
+    private AdaptiveTessellator myTessellator;
+    private Tessellation myTessellation;
+    private int myTessellationChangedFrom;
+    private Ribbon myRibbon = new Ribbon(.2f, new float[] { 1, 0, 1 }, new float[] { 0, 1, 0 });
+    private boolean myRibbonChanged;
+    // reused between draws so drawing does not allocate per frame
+    private float[] myRibbonPositions = new float[0];
+    private float[] myRibbonBinormals = new float[0];
+    // staging space for evaluating batches into buffers
+    private float[][] myBatchStaging;
 
     /**
      * Create empty curve.
@@ -29,51 +57,82 @@ public class Spline implements Iterable<float[]> {
         }
     }
 
-    public Spline (ArrayList<float[]> pts) {
-        myControlPoints = pts;
+    /**
+     * Create curve through a copy of the given control points.
+     */
+    public Spline (PointStore controlPoints) {
+        myControlPoints = new PointStore(controlPoints);
     }
 
     /**
-     * Create curve from the control points listed in the given file.
+     * Create curve from the control points listed in the given file, either
+     * a text file or a binary track file, which is read in place.
+     *
+     * @throws TrackException if the file cannot be read or is malformed
      */
-    @SuppressWarnings("resource")
     public Spline (String filename, int num) {
-        try {
-            Scanner input = new Scanner(new File(filename));
-            input.nextLine();  // read starting comment
-            while (input.hasNextLine()) {
-                Scanner line = new Scanner(input.nextLine());
-                addPoint(line.nextFloat(), line.nextFloat(), line.nextFloat());
-            }
-            input.close();
-        } catch (FileNotFoundException e) {
-            // BUGBUG: not the best way to handle this error
-            e.printStackTrace();
-            System.exit(1);
-        }
+        myControlPoints = TrackFile.readPoints(filename);
         init(num);
     }
 
     public void init(int num) {
-        while(numControlPoints() < num) {
-            makeRandomPoint();
-        }
+        myGenerator.generate(myControlPoints, num - numControlPoints());
+    }
+
+    /**
+     * Sets the generator random control points are made with, which starts
+     * as one with the default seed so curves are the same from run to run.
+     */
+    public void setGenerator(TrackGenerator generator) {
+        myGenerator = generator;
     }
 
     public float[] scalePoints(float t[], float scalar) {
-        return new float[]{t[0] * scalar, t[1] * scalar, t[2] * scalar};
+        return scalePoints(t, scalar, new float[3]);
     }
 
     public float[] sumPoints(float t[], float s[]) {
-        return new float[]{t[0] + s[0], t[1] + s[1], t[2] + s[2]};
+        return sumPoints(t, s, new float[3]);
     }
 
     public float[] subPoints(float t[], float s[]) {
-        return new float[]{t[0] - s[0], t[1] - s[1], t[2] - s[2]};
+        return subPoints(t, s, new float[3]);
     }
 
     public float[] multPoints(float t[], float s[]) {
-        return new float[]{t[0] * s[0], t[1] * s[1], t[2] * s[2]};
+        return multPoints(t, s, new float[3]);
+    }
+
+    /**
+     * Versions of the point arithmetic above that write into the given
+     * result (which may be one of the arguments) and return it.
+     */
+    public float[] scalePoints(float t[], float scalar, float result[]) {
+        result[0] = t[0] * scalar;
+        result[1] = t[1] * scalar;
+        result[2] = t[2] * scalar;
+        return result;
+    }
+
+    public float[] sumPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] + s[0];
+        result[1] = t[1] + s[1];
+        result[2] = t[2] + s[2];
+        return result;
+    }
+
+    public float[] subPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] - s[0];
+        result[1] = t[1] - s[1];
+        result[2] = t[2] - s[2];
+        return result;
+    }
+
+    public float[] multPoints(float t[], float s[], float result[]) {
+        result[0] = t[0] * s[0];
+        result[1] = t[1] * s[1];
+        result[2] = t[2] * s[2];
+        return result;
     }
 
     public float[] makeControlPointTangent(int i, int j) {
@@ -91,23 +150,12 @@ public class Spline implements Iterable<float[]> {
         return sum;
     }
 
+    /**
+     * Adds a control point one random step on from the last, heading on
+     * without turning back on the curve.
+     */
     public void makeRandomPoint() {
-        float[] tangent = makeControlPointTangent(numControlPoints() - 1, numControlPoints() - 2);
-        float[] basis = new float[3];
-        float[] newPoint = new float[3];
-        float dot_val = -0.1f;
-        while(dot_val < 0.0f) {
-            Random r = new Random();
-            basis[0] = r.nextFloat() * 2 - 1;
-            basis[1] = r.nextFloat() * 2 - 1;
-            basis[2] = r.nextFloat() * 2 - 1;
-            newPoint = sumPoints(myControlPoints.get(numControlPoints() - 1), scalePoints(basis, 30f));
-            dot_val = computeDotProduct(tangent, subPoints(newPoint, myControlPoints.get(numControlPoints() - 1)));
-//            dot_val = 0.1f;
-        }
-        myControlPoints.add(newPoint);
-        float[] printer = sumPoints(myControlPoints.get(numControlPoints() - 1), scalePoints(basis, 20f));
-        System.out.printf("New Point: (Index: %d) (%f, %f, %f)\n", numControlPoints(), printer[0], printer[1], printer[2]);
+        myGenerator.generate(myControlPoints, 1);
     }
 
     /**
@@ -125,8 +173,7 @@ public class Spline implements Iterable<float[]> {
      * @return index of new control point
      */
     public int addPoint (float[] point) {
-        myControlPoints.add(point);
-        return myControlPoints.size() - 1;
+        return myControlPoints.add(point);
     }
 
     /**
@@ -142,18 +189,24 @@ public class Spline implements Iterable<float[]> {
      * falls within the appropriate range.
      */
     public float[] evaluateAt (float t) {
+        float[] result = new float[3];
+        evaluateAt(t, result, 0);
+        return result;
+    }
+
+    /**
+     * Evaluate a point on the curve at a given time, writing its x, y, z
+     * into the given array starting at offset rather than allocating one.
+     */
+    public void evaluateAt (float t, float[] result, int offset) {
         int tn = (int)Math.floor(t);
         float u = t - tn;
-        float u_sq = u * u;
-        float u_cube = u * u_sq;
-        // evaluate basis functions at t, faster than matrix multiply
-        float[] basis = {
-            -u_cube + 3*u_sq - 3*u + 1,
-             3*u_cube - 6*u_sq + 4,
-            -3*u_cube + 3*u_sq + 3*u + 1,
-             u_cube
-        };
-        return evaluateBasisAt(tn, basis);
+        float[] c = coefficients();
+        int k = segmentOffset(tn);
+        // evaluate the segment's cubic using Horner's rule
+        result[offset]     = ((c[k]     * u + c[k + 1]) * u + c[k + 2])  * u + c[k + 3];
+        result[offset + 1] = ((c[k + 4] * u + c[k + 5]) * u + c[k + 6])  * u + c[k + 7];
+        result[offset + 2] = ((c[k + 8] * u + c[k + 9]) * u + c[k + 10]) * u + c[k + 11];
     }
 
     /**
@@ -169,17 +222,23 @@ public class Spline implements Iterable<float[]> {
      * falls within the appropriate range.
      */
     public float[] evaluateDerivativeAt (float t) {
+        float[] result = new float[3];
+        evaluateDerivativeAt(t, result, 0);
+        return result;
+    }
+
+    /**
+     * Evaluate the derivative of the curve at a given time, writing it
+     * into the given array starting at offset rather than allocating one.
+     */
+    public void evaluateDerivativeAt (float t, float[] result, int offset) {
         int tn = (int)Math.floor(t);
         float u = t - tn;
-        float u_sq = u * u;
-        // evaluate basis functions at t, faster than matrix multiply
-        float[] basis = {
-            -3*u_sq + 6*u - 3,
-             9*u_sq - 12*u,
-            -9*u_sq + 6*u + 3,
-             3*u_sq
-        };
-        return evaluateBasisAt(tn, basis);
+        float[] c = coefficients();
+        int k = segmentOffset(tn);
+        result[offset]     = (3 * c[k]     * u + 2 * c[k + 1]) * u + c[k + 2];
+        result[offset + 1] = (3 * c[k + 4] * u + 2 * c[k + 5]) * u + c[k + 6];
+        result[offset + 2] = (3 * c[k + 8] * u + 2 * c[k + 9]) * u + c[k + 10];
     }
 
     /**
@@ -195,16 +254,23 @@ public class Spline implements Iterable<float[]> {
      * falls within the appropriate range.
      */
     public float[] evaluateSecondDerivativeAt (float t) {
+        float[] result = new float[3];
+        evaluateSecondDerivativeAt(t, result, 0);
+        return result;
+    }
+
+    /**
+     * Evaluate the second derivative of the curve at a given time, writing
+     * it into the given array starting at offset rather than allocating one.
+     */
+    public void evaluateSecondDerivativeAt (float t, float[] result, int offset) {
         int tn = (int)Math.floor(t);
         float u = t - tn;
-        // evaluate basis functions at t, faster than matrix multiply
-        float[] basis = {
-            -6*u + 6,
-             18*u - 12,
-            -18*u + 6,
-             6*u
-        };
-        return evaluateBasisAt(tn, basis);
+        float[] c = coefficients();
+        int k = segmentOffset(tn);
+        result[offset]     = 6 * c[k]     * u + 2 * c[k + 1];
+        result[offset + 1] = 6 * c[k + 4] * u + 2 * c[k + 5];
+        result[offset + 2] = 6 * c[k + 8] * u + 2 * c[k + 9];
     }
 
     /**
@@ -224,48 +290,148 @@ public class Spline implements Iterable<float[]> {
      */
 
     public void draw(GL2 gl, GLUT glut, float resolution, float time) {
-        gl.glBegin(GL2.GL_QUAD_STRIP);
-        {
-            for (float t = time % numControlPoints(); t < time + 5f; t += resolution) {
-                gl.glColor3f(1f, 0f, 0f);
-                gl.glVertex3f(evaluateAt(t)[0] - .5f * evaluateBinormal(t)[0],
-                        evaluateAt(t)[1] - .5f * evaluateBinormal(t)[1],
-                        evaluateAt(t)[2] - .5f * evaluateBinormal(t)[2]);
-//                gl.glVertex3fv(evaluateAt(t), 0);
-                gl.glColor3f(0, 1, 0);
-                gl.glVertex3f(evaluateAt(t)[0] + .5f * evaluateBinormal(t)[0],
-                        evaluateAt(t)[1] + .5f * evaluateBinormal(t)[1],
-                        evaluateAt(t)[2] + .5f * evaluateBinormal(t)[2]);
-            }
+        float start = time % numControlPoints();
+        int count = (int)Math.ceil((time + 5f - start) / resolution);
+        evaluateRibbon(start, resolution, count);
+        drawRibbon(gl, count, .5f, 1f, 0f, 0f);
+    }
+
+    /**
+     * Draws the curve as a ribbon tessellated adaptively to within the given
+     * distance of the curve.  The tessellation and ribbon are only recomputed
+     * when control points are added, so drawing is just the vertex calls.
+     */
+    public void drawAdaptive (GL2 gl, float tolerance) {
+        Tessellation tessellation = tessellate(tolerance);
+        if (myRibbonChanged) {
+            myRibbon.update(tessellation, rotationMinimizingFrames());
+            myRibbonChanged = false;
         }
-        gl.glEnd();
+        myRibbon.draw(gl);
+    }
+
+    /**
+     * Returns the curve's adaptive tessellation to within the given distance,
+     * brought up to date with any control points added since it was last used.
+     */
+    public Tessellation tessellate (float tolerance) {
+        coefficients();
+        if (myTessellator == null || myTessellator.getTolerance() != tolerance) {
+            myTessellator = new AdaptiveTessellator(tolerance);
+            myTessellation = null;
+        }
+        if (myTessellation == null) {
+            myTessellation = myTessellator.tessellate(this);
+            myRibbonChanged = true;
+        }
+        else if (myTessellationChangedFrom < numSegments()) {
+            myTessellator.update(this, myTessellation, myTessellationChangedFrom);
+            myRibbonChanged = true;
+        }
+        myTessellationChangedFrom = numSegments();
+        return myTessellation;
     }
 
     public void draw(GL2 gl, GLUT glut, float resolution) {
+        int count = (int)Math.ceil(numControlPoints() / resolution);
+        evaluateRibbon(0, resolution, count);
+        drawRibbon(gl, count, .2f, 1f, 0f, 1f);
+    }
+
+    // evaluate the ribbon's centerline and rotation minimizing binormals,
+    // reusing the arrays when large enough
+    private void evaluateRibbon (float start, float resolution, int count) {
+        if (myRibbonPositions.length < count * 3) {
+            myRibbonPositions = new float[count * 3];
+            myRibbonBinormals = new float[count * 3];
+        }
+        rotationMinimizingFrames().evaluateRange(start, resolution, count, myRibbonPositions, null, null, myRibbonBinormals);
+    }
+
+    // draw a strip of the given half width around the evaluated ribbon, green on the outside
+    private void drawRibbon (GL2 gl, int count, float width, float red, float green, float blue) {
+        float[] pos = myRibbonPositions;
+        float[] bin = myRibbonBinormals;
         gl.glBegin(GL2.GL_QUAD_STRIP);
         {
-            for (float t = 0; t < numControlPoints(); t += resolution) {
-                gl.glColor3f(1f, 0f, 1f);
-                gl.glVertex3f(evaluateAt(t)[0] - .2f * evaluateBinormal(t)[0],
-                        evaluateAt(t)[1] - .2f * evaluateBinormal(t)[1],
-                        evaluateAt(t)[2] - .2f * evaluateBinormal(t)[2]);
-//                gl.glVertex3fv(evaluateAt(t), 0);
+            for (int k = 0; k < count * 3; k += 3) {
+                gl.glColor3f(red, green, blue);
+                gl.glVertex3f(pos[k] - width * bin[k],
+                        pos[k + 1] - width * bin[k + 1],
+                        pos[k + 2] - width * bin[k + 2]);
                 gl.glColor3f(0, 1, 0);
-                gl.glVertex3f(evaluateAt(t)[0] + .2f * evaluateBinormal(t)[0],
-                        evaluateAt(t)[1] + .2f * evaluateBinormal(t)[1],
-                        evaluateAt(t)[2] + .2f * evaluateBinormal(t)[2]);
+                gl.glVertex3f(pos[k] + width * bin[k],
+                        pos[k + 1] + width * bin[k + 1],
+                        pos[k + 2] + width * bin[k + 2]);
             }
         }
         gl.glEnd();
     }
 
+    /**
+     * Evaluates the curve at count times, beginning at start and advancing by
+     * step, in a single pass.
+     *
+     * Results are packed as consecutive x, y, z triples, one array per quantity:
+     * the point, the (unnormalized) derivative, and the unit normal and binormal
+     * at each time.  Pass null for any quantity that is not needed.  Since
+     * neighboring times usually share a segment, the control points for each
+     * segment are only looked up once.
+     */
+    public void evaluateRange (float start, float step, int count,
+                               float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        evaluateBatch(null, start, step, 0, count, positions, derivatives, normals, binormals);
+    }
+
+    /**
+     * Evaluates the curve at the first count of the given times in a single
+     * pass, packing the results as described in evaluateRange.  When only
+     * points and derivatives are wanted, they are read straight from the
+     * coefficients.
+     */
+    public void evaluateAll (float[] times, int count,
+                             float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        if (normals == null && binormals == null) {
+            CubicSegments.evaluateAll(this, times, count, positions, derivatives);
+        }
+        else {
+            evaluateBatch(times, 0, 0, 0, count, positions, derivatives, normals, binormals);
+        }
+    }
+
+    /**
+     * Evaluates the curve like evaluateRange, but appends the packed results
+     * to the given buffers (any of which may be null), advancing their
+     * positions.  Suitable for filling direct buffers used as vertex arrays.
+     */
+    public void evaluateRange (float start, float step, int count,
+                               FloatBuffer positions, FloatBuffer derivatives, FloatBuffer normals, FloatBuffer binormals) {
+        if (myBatchStaging == null) {
+            myBatchStaging = new float[4][BATCH_SIZE * 3];
+        }
+        float[][] staging = myBatchStaging;
+        for (int from = 0; from < count; from += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, count - from);
+            evaluateBatch(null, start, step, from, size,
+                          positions == null ? null : staging[0],
+                          derivatives == null ? null : staging[1],
+                          normals == null ? null : staging[2],
+                          binormals == null ? null : staging[3]);
+            if (positions != null) positions.put(staging[0], 0, size * 3);
+            if (derivatives != null) derivatives.put(staging[1], 0, size * 3);
+            if (normals != null) normals.put(staging[2], 0, size * 3);
+            if (binormals != null) binormals.put(staging[3], 0, size * 3);
+        }
+    }
+
     /**
      * Draws control points around the curve as a collection of points.
      */
     public void drawControlPoints (GL2 gl) {
+        float[] c = myControlPoints.coordinates();
         gl.glBegin(GL2.GL_POINTS); {
-            for (float[] pt : myControlPoints) {
-                gl.glVertex3fv(pt, 0);
+            for (int k = 0; k < 3 * numControlPoints(); k += 3) {
+                gl.glVertex3fv(c, k);
             }
         }
         gl.glEnd();
@@ -277,7 +443,7 @@ public class Spline implements Iterable<float[]> {
      */
     @Override
     public Iterator<float[]> iterator () {
-        return Collections.unmodifiableList(myControlPoints).iterator();
+        return myControlPoints.iterator();
     }
 
     /**
@@ -292,44 +458,349 @@ public class Spline implements Iterable<float[]> {
         return result.toString();
     }
     
-    // use the basis functions to evaluate a specific point on the curve
-    private float[] evaluateBasisAt (int t, float[] basis) {
-        // sum the control points times the basis functions for each dimension
-        float[] result = { 0, 0, 0 };
-        for (int k = 0; k < 4; k++) {
-            int index = (t + k) % numControlPoints();
-            result[0] += myControlPoints.get(index)[0] * basis[k];
-            result[1] += myControlPoints.get(index)[1] * basis[k];
-            result[2] += myControlPoints.get(index)[2] * basis[k];
+    /**
+     * Returns the power basis coefficients of every segment of the curve.
+     *
+     * Segment i, the part of the curve for times in [i .. i+1], starts at
+     * index 12 * i and holds a, b, c, d for x, then y, then z, such that
+     * the point at u in [0 .. 1] is ((a * u + b) * u + c) * u + d.  The
+     * returned array may be larger than needed and is only valid until
+     * the next control point is added.
+     */
+    @Override
+    public float[] coefficients () {
+        int n = numControlPoints();
+        if (n != myCoefficientPoints) {
+            if (n > myCoefficientPoints) {
+                // appending a point only changes the segments that wrap around
+                myValidSegments = Math.min(myValidSegments, Math.max(0, myCoefficientPoints - 3));
+            }
+            else {
+                myValidSegments = 0;
+            }
+            myCoefficientPoints = n;
         }
-        // divide through the constant factor
-        for (int k = 0; k < result.length; k++) {
-            result[k] /= 6.0f;
+        if (myValidSegments < n) {
+            if (myCoefficients.length < n * COEFFICIENTS_PER_SEGMENT) {
+                myCoefficients = Arrays.copyOf(myCoefficients,
+                                               Math.max(n, 2 * myCoefficients.length / COEFFICIENTS_PER_SEGMENT) * COEFFICIENTS_PER_SEGMENT);
+            }
+            // read the points in place, so those from a mapped file are not copied
+            FloatBuffer points = myControlPoints.asFloatBuffer();
+            for (int i = myValidSegments; i < n; i++) {
+                computeSegment(points, i);
+            }
+            myArcLengthsChangedFrom = Math.min(myArcLengthsChangedFrom, myValidSegments);
+            myFramesChangedFrom = Math.min(myFramesChangedFrom, myValidSegments);
+            myTessellationChangedFrom = Math.min(myTessellationChangedFrom, myValidSegments);
+            mySegmentTreeChangedFrom = Math.min(mySegmentTreeChangedFrom, myValidSegments);
+            myValidSegments = n;
+        }
+        return myCoefficients;
+    }
+
+    /**
+     * Returns the number of segments around the curve, one per control point.
+     */
+    @Override
+    public int numSegments () {
+        return numControlPoints();
+    }
+
+    /**
+     * Returns true, since the curve is a loop.
+     */
+    @Override
+    public boolean isClosed () {
+        return true;
+    }
+
+    /**
+     * Returns the table mapping distance along the curve to time, brought
+     * up to date with any control points added since it was last used.
+     */
+    public ArcLengthTable arcLengths () {
+        coefficients();
+        if (myArcLengths == null) {
+            myArcLengths = new ArcLengthTable(this);
+        }
+        else if (myArcLengthsChangedFrom < numSegments()) {
+            myArcLengths.update(myArcLengthsChangedFrom);
+        }
+        myArcLengthsChangedFrom = numSegments();
+        return myArcLengths;
+    }
+
+    /**
+     * Returns the rotation minimizing frames along the curve, brought up to
+     * date with any control points added since they were last used.
+     */
+    public RotationMinimizingFrames rotationMinimizingFrames () {
+        coefficients();
+        if (myFrames == null) {
+            myFrames = new RotationMinimizingFrames(this, myFrameDensity);
+        }
+        else if (myFramesChangedFrom < numSegments()) {
+            myFrames.update(myFramesChangedFrom);
+        }
+        myFramesChangedFrom = numSegments();
+        return myFrames;
+    }
+
+    /**
+     * Returns the bounding volume hierarchy over the curve's segments, brought
+     * up to date with any control points added since it was last used.
+     */
+    public SegmentTree segmentTree () {
+        coefficients();
+        if (mySegmentTree == null) {
+            mySegmentTree = new SegmentTree(this);
+        }
+        else if (mySegmentTreeChangedFrom < numSegments()) {
+            mySegmentTree.update(mySegmentTreeChangedFrom);
+        }
+        mySegmentTreeChangedFrom = numSegments();
+        return mySegmentTree;
+    }
+
+    /**
+     * Returns the parameter of the point on the curve closest to the given
+     * point, found through the segment tree rather than by sampling.
+     */
+    public float closestParameter (float[] point) {
+        return segmentTree().closestParameter(point);
+    }
+
+    /**
+     * Returns the distance from the given point to the closest point on the curve.
+     */
+    public float distanceTo (float[] point) {
+        return segmentTree().distanceTo(point);
+    }
+
+    /**
+     * Sets how many rotation minimizing frames are sampled per segment.
+     */
+    public void setFrameDensity (int samplesPerSegment) {
+        myFrameDensity = samplesPerSegment;
+        myFrames = null;
+        myRibbonChanged = true;
+    }
+
+    /**
+     * Evaluate the position and rotation minimizing frame of the curve at a
+     * given time into the given frame.  Unlike evaluateFrame, the normal and
+     * binormal do not flip where the curve's bending changes direction.
+     */
+    public void evaluateRotationMinimizingFrame (float t, Frame frame) {
+        rotationMinimizingFrames().evaluate(t, frame);
+    }
+
+    /**
+     * Returns the length of the entire loop.
+     */
+    public float totalLength () {
+        return arcLengths().totalLength();
+    }
+
+    /**
+     * Returns the time at which the curve has covered the given distance,
+     * wrapping distances longer than the loop back around it.
+     */
+    public float parameterAtDistance (float distance) {
+        return arcLengths().parameterAtDistance(distance);
+    }
+
+    // convert the segment's control points from the B-spline basis to the power basis
+    private void computeSegment (FloatBuffer c, int segment) {
+        int n = numControlPoints();
+        int p0 = 3 * segment;
+        int p1 = 3 * ((segment + 1) % n);
+        int p2 = 3 * ((segment + 2) % n);
+        int p3 = 3 * ((segment + 3) % n);
+        int k = segment * COEFFICIENTS_PER_SEGMENT;
+        for (int dim = 0; dim < 3; dim++, k += 4) {
+            float c0 = c.get(p0 + dim), c1 = c.get(p1 + dim), c2 = c.get(p2 + dim), c3 = c.get(p3 + dim);
+            myCoefficients[k]     = (-c0 + 3 * c1 - 3 * c2 + c3) / 6.0f;
+            myCoefficients[k + 1] = (3 * c0 - 6 * c1 + 3 * c2) / 6.0f;
+            myCoefficients[k + 2] = (-3 * c0 + 3 * c2) / 6.0f;
+            myCoefficients[k + 3] = (c0 + 4 * c1 + c2) / 6.0f;
+        }
+    }
+
+    // index of the given segment's coefficients, wrapping it around the curve
+    private int segmentOffset (int segment) {
+        return Math.floorMod(segment, numControlPoints()) * COEFFICIENTS_PER_SEGMENT;
+    }
+
+    // evaluate times[first + i] (or start + (first + i) * step when times is null)
+    // for i in [0, count), writing the i-th result at index 3 * i
+    private void evaluateBatch (float[] times, float start, float step, int first, int count,
+                                float[] positions, float[] derivatives, float[] normals, float[] binormals) {
+        float[] c = coefficients();
+        boolean needsFrame = (normals != null || binormals != null);
+        int segment = Integer.MIN_VALUE;
+        float ax = 0, bx = 0, cx = 0, dx = 0, ay = 0, by = 0, cy = 0, dy = 0, az = 0, bz = 0, cz = 0, dz = 0;
+        for (int i = 0; i < count; i++) {
+            float t = (times != null) ? times[first + i] : start + (first + i) * step;
+            int tn = (int)Math.floor(t);
+            if (tn != segment) {
+                // only look up coefficients when entering a new segment
+                segment = tn;
+                int j = segmentOffset(tn);
+                ax = c[j];     bx = c[j + 1]; cx = c[j + 2];  dx = c[j + 3];
+                ay = c[j + 4]; by = c[j + 5]; cy = c[j + 6];  dy = c[j + 7];
+                az = c[j + 8]; bz = c[j + 9]; cz = c[j + 10]; dz = c[j + 11];
+            }
+            float u = t - tn;
+            int k = 3 * i;
+            if (positions != null) {
+                positions[k]     = ((ax * u + bx) * u + cx) * u + dx;
+                positions[k + 1] = ((ay * u + by) * u + cy) * u + dy;
+                positions[k + 2] = ((az * u + bz) * u + cz) * u + dz;
+            }
+            if (derivatives == null && !needsFrame) {
+                continue;
+            }
+            float tx = (3 * ax * u + 2 * bx) * u + cx;
+            float ty = (3 * ay * u + 2 * by) * u + cy;
+            float tz = (3 * az * u + 2 * bz) * u + cz;
+            if (derivatives != null) {
+                derivatives[k] = tx;
+                derivatives[k + 1] = ty;
+                derivatives[k + 2] = tz;
+            }
+            if (!needsFrame) {
+                continue;
+            }
+            float sx = 6 * ax * u + 2 * bx;
+            float sy = 6 * ay * u + 2 * by;
+            float sz = 6 * az * u + 2 * bz;
+            // binormal is the derivative crossed with the second derivative
+            float nx = (ty * sz) - (tz * sy);
+            float ny = -(tx * sz) + (tz * sx);
+            float nz = (tx * sy) - (ty * sx);
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            if (binormals != null) {
+                binormals[k] = nx;
+                binormals[k + 1] = ny;
+                binormals[k + 2] = nz;
+            }
+            if (normals != null) {
+                // normal is the binormal crossed with the derivative
+                float mx = (ny * tz) - (nz * ty);
+                float my = -(nx * tz) + (nz * tx);
+                float mz = (nx * ty) - (ny * tx);
+                length = (float) Math.sqrt(mx * mx + my * my + mz * mz);
+                normals[k] = mx / length;
+                normals[k + 1] = my / length;
+                normals[k + 2] = mz / length;
+            }
         }
-        return result;
     }
 
     public float[] evaluateNormal(float t) {
-        float[] norm = normalize(crossProduct(evaluateSecondDerivativeAt(t), evaluateDerivativeAt(t)));
-        return normalize(crossProduct(evaluateDerivativeAt(t), norm));
+        float[] result = new float[3];
+        evaluateNormal(t, result, 0);
+        return result;
     }
 
     public float[] evaluateBinormal(float t) {
-        return normalize(crossProduct(evaluateDerivativeAt(t), evaluateSecondDerivativeAt(t)));
+        float[] result = new float[3];
+        evaluateBinormal(t, result, 0);
+        return result;
+    }
+
+    /**
+     * Evaluate the unit normal of the curve at a given time, writing it
+     * into the given array starting at offset rather than allocating one.
+     */
+    public void evaluateNormal (float t, float[] result, int offset) {
+        // the normal is the unit binormal crossed with the derivative
+        evaluateDerivativeAt(t, result, offset);
+        float dx = result[offset], dy = result[offset + 1], dz = result[offset + 2];
+        evaluateBinormal(t, result, offset);
+        float bx = result[offset], by = result[offset + 1], bz = result[offset + 2];
+        result[offset]     = (by * dz) - (bz * dy);
+        result[offset + 1] = -(bx * dz) + (bz * dx);
+        result[offset + 2] = (bx * dy) - (by * dx);
+        normalize(result, offset);
+    }
+
+    /**
+     * Evaluate the unit binormal of the curve at a given time, writing it
+     * into the given array starting at offset rather than allocating one.
+     */
+    public void evaluateBinormal (float t, float[] result, int offset) {
+        evaluateSecondDerivativeAt(t, result, offset);
+        float sx = result[offset], sy = result[offset + 1], sz = result[offset + 2];
+        evaluateDerivativeAt(t, result, offset);
+        float dx = result[offset], dy = result[offset + 1], dz = result[offset + 2];
+        result[offset]     = (dy * sz) - (dz * sy);
+        result[offset + 1] = -(dx * sz) + (dz * sx);
+        result[offset + 2] = (dx * sy) - (dy * sx);
+        normalize(result, offset);
+    }
+
+    /**
+     * Evaluate the position and Frenet frame of the curve at a given time
+     * into the given frame, without allocating anything.
+     */
+    public void evaluateFrame (float t, Frame frame) {
+        evaluateAt(t, frame.position, 0);
+        evaluateDerivativeAt(t, frame.tangent, 0);
+        evaluateSecondDerivativeAt(t, frame.normal, 0);
+        // binormal is the derivative crossed with the second derivative
+        crossProduct(frame.tangent, frame.normal, frame.binormal);
+        normalize(frame.binormal, frame.binormal);
+        normalize(frame.tangent, frame.tangent);
+        // normal is the binormal crossed with the (now unit) tangent
+        crossProduct(frame.binormal, frame.tangent, frame.normal);
+        normalize(frame.normal, frame.normal);
     }
 
     public float[] crossProduct(float[] x, float[] y) {
-        // performs cross product for x cross y
+        return crossProduct(x, y, new float[3]);
+    }
+
+    /**
+     * Performs cross product for x cross y into result, which may be
+     * either of the arguments, and returns it.
+     */
+    public float[] crossProduct(float[] x, float[] y, float[] result) {
         float i, j, k;
         i = (x[1] * y[2]) - (x[2] * y[1]);
         j = -(x[0] * y[2]) + (x[2] * y[0]);
         k = (x[0] * y[1]) - (x[1] * y[0]);
-        return new float[]{i, j, k};
+        result[0] = i;
+        result[1] = j;
+        result[2] = k;
+        return result;
     }
 
     public float[] normalize(float[] t) {
-        double length = Math.pow(t[0], 2) + Math.pow(t[1], 2) + Math.pow(t[2], 2);
-        float scalar = (float) Math.sqrt(length);
-        return new float[]{t[0]/scalar, t[1]/scalar, t[2]/scalar};
+        return normalize(t, new float[3]);
+    }
+
+    /**
+     * Normalizes t into result, which may be t itself, and returns it.
+     */
+    public float[] normalize(float[] t, float[] result) {
+        float scalar = (float) Math.sqrt(t[0] * t[0] + t[1] * t[1] + t[2] * t[2]);
+        result[0] = t[0] / scalar;
+        result[1] = t[1] / scalar;
+        result[2] = t[2] / scalar;
+        return result;
+    }
+
+    // normalizes the vector stored at the given offset in place
+    private void normalize (float[] t, int offset) {
+        float scalar = (float) Math.sqrt(t[offset] * t[offset] + t[offset + 1] * t[offset + 1] + t[offset + 2] * t[offset + 2]);
+        t[offset] /= scalar;
+        t[offset + 1] /= scalar;
+        t[offset + 2] /= scalar;
     }
 }
@@ -0,0 +1,505 @@
+package framework;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.media.opengl.GL2;
+
+
+/**
+ * A heightmap drawn as a quadtree of tiles that are coarser the farther
+ * they are from the camera (chunked level of detail).
+ *
+ * Every tile is a grid of TILE_SIZE by TILE_SIZE cells.  The root tile
+ * covers the whole map, sampling every so many heights, and each tile's
+ * children cover its quarters at twice its detail, down to tiles that use
+ * every height.  Each frame, update picks the coarsest tiles whose
+ * triangles stray from the heights under them by no more than a given
+ * number of pixels on screen, skipping tiles out of view.  Neighbouring
+ * tiles of different detail do not quite meet, so every tile hangs a skirt
+ * down from its edges to hide the cracks between them.
+ *
+ * Tiles are built on background threads when they are first wanted, then
+ * kept in vertex buffers until too many are kept and they have gone unused
+ * the longest.  Until all of a tile's children are ready, it is drawn in
+ * their place.
+ */
+public class Terrain {
+    public static final int TILE_SIZE = 32;
+    public static final float DEFAULT_PIXEL_ERROR = 4;
+    // degrees, the field of view of the listener's perspective
+    private static final float FIELD_OF_VIEW = 45;
+    // vertices across a tile, floats per vertex (position, normal and color), and vertices per tile with its skirt
+    private static final int SIDE = TILE_SIZE + 1;
+    private static final int FLOATS_PER_VERTEX = 9;
+    private static final int STRIDE = 4 * FLOATS_PER_VERTEX;
+    private static final int VERTICES = SIDE * SIDE + 4 * SIDE;
+    // most tiles kept in vertex buffers, and uploaded to them each frame
+    private static final int MAX_RESIDENT = 1024;
+    private static final int MAX_UPLOADS = 16;
+    // frames a wanted tile may wait to be built before it is no longer wanted
+    private static final int STALE_FRAMES = 30;
+    // colors from the lowest heights to the highest
+    private static final float[][] COLORS = {
+        { .20f, .35f, .15f }, { .35f, .50f, .20f }, { .50f, .40f, .25f }, { .90f, .90f, .90f }
+    };
+
+    private Heightmap myMap;
+    private float mySpacing;
+    private float myLeft;
+    private float myBack;
+    private float myBase;
+    private float myHeight;
+    private Node myRoot;
+    private float myPixelError = DEFAULT_PIXEL_ERROR;
+    private Executor myBuilder = ForkJoinPool.commonPool();
+    private volatile int myFrame;
+    // tiles built in the background, waiting to be uploaded
+    private Queue<Node> myBuilt = new ConcurrentLinkedQueue<>();
+    private List<Node> myResident = new ArrayList<>();
+    private List<Node> myDrawn = new ArrayList<>();
+    private int myIndexBuffer;
+    private int myIndexCount;
+    private FloatBuffer myStaging;
+    // the view tiles are picked for: the eye, the unit direction it looks, the cone
+    // around that holding the view, and the pixels a unit of error spans a unit away
+    private float myEyeX;
+    private float myEyeY;
+    private float myEyeZ;
+    private float myLookX;
+    private float myLookY;
+    private float myLookZ;
+    private float myConeCos;
+    private float myConeSin;
+    private float myPixelsPerUnit;
+
+
+    /**
+     * Create a terrain from the given heights, size world units across its
+     * longer side and centered on the origin, with heights of 0 at base and
+     * of 1 at base + height.
+     */
+    public Terrain (Heightmap map, float size, float height, float base) {
+        myMap = map;
+        int across = Math.max(map.getColumns(), map.getRows()) - 1;
+        mySpacing = size / across;
+        myLeft = -mySpacing * (map.getColumns() - 1) / 2;
+        myBack = -mySpacing * (map.getRows() - 1) / 2;
+        myBase = base;
+        myHeight = height;
+        int span = TILE_SIZE;
+        while (span < across) {
+            span *= 2;
+        }
+        myRoot = new Node(null, 0, 0, span);
+        // drawn until anything finer is ready, so built now
+        myRoot.myRequested = true;
+        build(myRoot);
+        myBuilt.add(myRoot);
+    }
+
+    /**
+     * Sets how many pixels on screen tiles may stray from the heights, so
+     * larger values draw coarser tiles.
+     */
+    public void setPixelError (float pixels) {
+        myPixelError = pixels;
+    }
+
+    /**
+     * Returns how many pixels on screen tiles may stray from the heights.
+     */
+    public float getPixelError () {
+        return myPixelError;
+    }
+
+    /**
+     * Picks the tiles to draw from the given eye looking toward the given
+     * point in a window of the given size, uploading tiles that have been
+     * built since the last frame.
+     */
+    public void update (GL2 gl, float eyeX, float eyeY, float eyeZ, float toX, float toY, float toZ,
+                        int width, int height) {
+        myFrame++;
+        if (myIndexBuffer == 0) {
+            createIndices(gl);
+        }
+        upload(gl);
+        myEyeX = eyeX;
+        myEyeY = eyeY;
+        myEyeZ = eyeZ;
+        float dx = toX - eyeX, dy = toY - eyeY, dz = toZ - eyeZ;
+        float length = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length == 0) {
+            dz = -1;
+            length = 1;
+        }
+        myLookX = dx / length;
+        myLookY = dy / length;
+        myLookZ = dz / length;
+        double halfHeight = Math.tan(Math.toRadians(FIELD_OF_VIEW) / 2);
+        double cone = Math.atan(halfHeight * Math.hypot(1, (double)width / Math.max(1, height)));
+        myConeCos = (float)Math.cos(cone);
+        myConeSin = (float)Math.sin(cone);
+        myPixelsPerUnit = (float)(Math.max(1, height) / (2 * halfHeight));
+        myDrawn.clear();
+        if (myRoot.myBuffer == 0) {
+            myRoot.myLastUsed = myFrame;
+            request(myRoot);
+        }
+        else {
+            select(myRoot);
+        }
+        evict(gl);
+    }
+
+    /**
+     * Draws the tiles picked by the last update.
+     */
+    public void draw (GL2 gl) {
+        if (myDrawn.isEmpty()) {
+            return;
+        }
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myIndexBuffer);
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+        for (Node node : myDrawn) {
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, node.myBuffer);
+            gl.glVertexPointer(3, GL2.GL_FLOAT, STRIDE, 0);
+            gl.glNormalPointer(GL2.GL_FLOAT, STRIDE, 12);
+            gl.glColorPointer(3, GL2.GL_FLOAT, STRIDE, 24);
+            gl.glDrawElements(GL2.GL_TRIANGLES, myIndexCount, GL2.GL_UNSIGNED_SHORT, 0);
+        }
+        gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    // draws the node, or its children if it strays too far and they are ready
+    private void select (Node node) {
+        node.myLastUsed = myFrame;
+        if (!node.isVisible()) {
+            return;
+        }
+        if (node.isLeaf() || node.myError * myPixelsPerUnit <= myPixelError * node.distance()) {
+            myDrawn.add(node);
+            return;
+        }
+        Node[] children = node.children();
+        boolean ready = true;
+        for (Node child : children) {
+            if (child != null && child.myBuffer == 0) {
+                child.myLastUsed = myFrame;
+                request(child);
+                ready = false;
+            }
+        }
+        if (!ready) {
+            myDrawn.add(node);
+            return;
+        }
+        for (Node child : children) {
+            if (child != null) {
+                select(child);
+            }
+        }
+    }
+
+    // builds the node in the background, unless it is no longer wanted by then
+    private void request (Node node) {
+        if (node.myRequested) {
+            return;
+        }
+        node.myRequested = true;
+        myBuilder.execute(() -> {
+            if (myFrame - node.myLastUsed <= STALE_FRAMES) {
+                build(node);
+            }
+            myBuilt.add(node);
+        });
+    }
+
+    // moves nodes built since the last frame into vertex buffers
+    private void upload (GL2 gl) {
+        int[] buffer = new int[1];
+        int uploads = 0;
+        while (uploads < MAX_UPLOADS) {
+            Node node = myBuilt.poll();
+            if (node == null) {
+                break;
+            }
+            float[] vertices = node.myVertices;
+            node.myVertices = null;
+            node.myRequested = false;
+            if (vertices == null || myFrame - node.myLastUsed > STALE_FRAMES) {
+                continue;
+            }
+            gl.glGenBuffers(1, buffer, 0);
+            myStaging.clear();
+            myStaging.put(vertices).flip();
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer[0]);
+            gl.glBufferData(GL2.GL_ARRAY_BUFFER, 4L * vertices.length, myStaging, GL2.GL_STATIC_DRAW);
+            node.myBuffer = buffer[0];
+            myResident.add(node);
+            uploads++;
+        }
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    }
+
+    // frees the buffers of the nodes unused the longest once too many are kept
+    private void evict (GL2 gl) {
+        if (myResident.size() <= MAX_RESIDENT) {
+            return;
+        }
+        myResident.sort(Comparator.comparingInt(node -> node.myLastUsed));
+        int excess = myResident.size() - MAX_RESIDENT * 3 / 4;
+        int[] buffer = new int[1];
+        List<Node> kept = new ArrayList<>();
+        for (Node node : myResident) {
+            if (excess > 0 && node != myRoot && node.myLastUsed < myFrame) {
+                buffer[0] = node.myBuffer;
+                gl.glDeleteBuffers(1, buffer, 0);
+                node.myBuffer = 0;
+                excess--;
+            }
+            else {
+                kept.add(node);
+            }
+        }
+        myResident = kept;
+    }
+
+    // every tile is the same grid, so shares one buffer of triangles
+    private void createIndices (GL2 gl) {
+        myIndexCount = 6 * TILE_SIZE * TILE_SIZE + 4 * 6 * TILE_SIZE;
+        ShortBuffer indices = ByteBuffer.allocateDirect(2 * myIndexCount).order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int j = 0; j < TILE_SIZE; j++) {
+            for (int i = 0; i < TILE_SIZE; i++) {
+                int a = j * SIDE + i;
+                int b = a + 1;
+                int c = a + SIDE;
+                int d = c + 1;
+                indices.put((short)a).put((short)c).put((short)b);
+                indices.put((short)b).put((short)c).put((short)d);
+            }
+        }
+        // each skirt joins an edge to its copy below it
+        int skirt = SIDE * SIDE;
+        for (int edge = 0; edge < 4; edge++) {
+            for (int k = 0; k < TILE_SIZE; k++) {
+                int top = edgeVertex(edge, k);
+                int next = edgeVertex(edge, k + 1);
+                int bottom = skirt + edge * SIDE + k;
+                indices.put((short)top).put((short)bottom).put((short)next);
+                indices.put((short)next).put((short)bottom).put((short)(bottom + 1));
+            }
+        }
+        indices.flip();
+        int[] buffer = new int[1];
+        gl.glGenBuffers(1, buffer, 0);
+        myIndexBuffer = buffer[0];
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myIndexBuffer);
+        gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, 2L * myIndexCount, indices, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+        myStaging = ByteBuffer.allocateDirect(4 * FLOATS_PER_VERTEX * VERTICES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // the index of the kth vertex along the given edge: front, back, left then right
+    private static int edgeVertex (int edge, int k) {
+        switch (edge) {
+            case 0:  return k;
+            case 1:  return TILE_SIZE * SIDE + k;
+            case 2:  return k * SIDE;
+            default: return k * SIDE + TILE_SIZE;
+        }
+    }
+
+    // the node's vertices, then its edges' again hanging down as its skirts
+    private void build (Node node) {
+        if (node.myError < 0) {
+            measure(node);
+        }
+        int step = node.mySpan / TILE_SIZE;
+        float parentError = (node.myParent == null) ? 0 : node.myParent.myError;
+        float skirt = 2 * Math.max(node.myError, parentError) + step * mySpacing;
+        float[] vertices = new float[FLOATS_PER_VERTEX * VERTICES];
+        int k = 0;
+        for (int j = 0; j < SIDE; j++) {
+            for (int i = 0; i < SIDE; i++) {
+                k = vertex(vertices, k, node.column(i), node.row(j), step, 0);
+            }
+        }
+        for (int edge = 0; edge < 4; edge++) {
+            for (int n = 0; n < SIDE; n++) {
+                int corner = edgeVertex(edge, n);
+                k = vertex(vertices, k, node.column(corner % SIDE), node.row(corner / SIDE), step, skirt);
+            }
+        }
+        node.myVertices = vertices;
+    }
+
+    // writes the vertex at the given height, lowered by drop, lit by the slope between its neighbours
+    private int vertex (float[] vertices, int k, int column, int row, int step, float drop) {
+        float h = myMap.get(column, row);
+        vertices[k] = myLeft + column * mySpacing;
+        vertices[k + 1] = myBase + h * myHeight - drop;
+        vertices[k + 2] = myBack + row * mySpacing;
+        int left = Math.max(column - step, 0);
+        int right = Math.min(column + step, myMap.getColumns() - 1);
+        int back = Math.max(row - step, 0);
+        int front = Math.min(row + step, myMap.getRows() - 1);
+        float nx = (myMap.get(left, row) - myMap.get(right, row)) * myHeight / ((right - left) * mySpacing);
+        float nz = (myMap.get(column, back) - myMap.get(column, front)) * myHeight / ((front - back) * mySpacing);
+        float length = (float)Math.sqrt(nx * nx + 1 + nz * nz);
+        vertices[k + 3] = nx / length;
+        vertices[k + 4] = 1 / length;
+        vertices[k + 5] = nz / length;
+        float t = h * (COLORS.length - 1);
+        int c = Math.max(0, Math.min((int)t, COLORS.length - 2));
+        float f = t - c;
+        for (int dim = 0; dim < 3; dim++) {
+            vertices[k + 6 + dim] = COLORS[c][dim] + f * (COLORS[c + 1][dim] - COLORS[c][dim]);
+        }
+        return k + FLOATS_PER_VERTEX;
+    }
+
+    // finds how high the heights under the node reach, and how far its triangles stray from them
+    private void measure (Node node) {
+        float[] heights = myMap.heights();
+        int columns = myMap.getColumns();
+        int rows = myMap.getRows();
+        int step = node.mySpan / TILE_SIZE;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        float error = 0;
+        for (int j = 0; j < TILE_SIZE && node.row(j) < rows - 1; j++) {
+            int r0 = node.row(j);
+            int r1 = node.row(j + 1);
+            for (int i = 0; i < TILE_SIZE && node.column(i) < columns - 1; i++) {
+                int c0 = node.column(i);
+                int c1 = node.column(i + 1);
+                float a = heights[r0 * columns + c0];
+                float b = heights[r0 * columns + c1];
+                float c = heights[r1 * columns + c0];
+                float d = heights[r1 * columns + c1];
+                for (int row = r0; row <= r1; row++) {
+                    float v = (float)(row - r0) / (r1 - r0);
+                    for (int column = c0; column <= c1; column++) {
+                        float h = heights[row * columns + column];
+                        min = Math.min(min, h);
+                        max = Math.max(max, h);
+                        // the cell is split into two triangles along its b-c diagonal
+                        float u = (float)(column - c0) / (c1 - c0);
+                        float mesh = (u + v <= 1) ? a + u * (b - a) + v * (c - a)
+                                                  : d + (1 - u) * (c - d) + (1 - v) * (b - d);
+                        error = Math.max(error, Math.abs(h - mesh));
+                    }
+                }
+            }
+        }
+        node.myMinY = myBase + min * myHeight;
+        node.myMaxY = myBase + max * myHeight;
+        node.myError = error * myHeight;
+    }
+
+    // a tile of the quadtree, mySpan heights across from myColumn and myRow
+    private class Node {
+        private final Node myParent;
+        private final int myColumn;
+        private final int myRow;
+        private final int mySpan;
+        private Node[] myChildren;
+        // known once built, along with its vertices
+        private float myError = -1;
+        private float myMinY;
+        private float myMaxY;
+        private volatile float[] myVertices;
+        private volatile int myLastUsed;
+        private boolean myRequested;
+        private int myBuffer;
+
+        Node (Node parent, int column, int row, int span) {
+            myParent = parent;
+            myColumn = column;
+            myRow = row;
+            mySpan = span;
+        }
+
+        boolean isLeaf () {
+            return mySpan == TILE_SIZE;
+        }
+
+        // the column and row of the ith vertex across and down, held to the map
+        int column (int i) {
+            return Math.min(myColumn + i * (mySpan / TILE_SIZE), myMap.getColumns() - 1);
+        }
+
+        int row (int j) {
+            return Math.min(myRow + j * (mySpan / TILE_SIZE), myMap.getRows() - 1);
+        }
+
+        // the quarters of the node that overlap the map
+        Node[] children () {
+            if (myChildren == null) {
+                int half = mySpan / 2;
+                myChildren = new Node[4];
+                for (int k = 0; k < myChildren.length; k++) {
+                    int column = myColumn + (k % 2) * half;
+                    int row = myRow + (k / 2) * half;
+                    if (column < myMap.getColumns() - 1 && row < myMap.getRows() - 1) {
+                        myChildren[k] = new Node(this, column, row, half);
+                    }
+                }
+            }
+            return myChildren;
+        }
+
+        // how far the eye is from the node's bounds
+        float distance () {
+            float dx = Math.max(Math.max(left() - myEyeX, myEyeX - right()), 0);
+            float dy = Math.max(Math.max(myMinY - myEyeY, myEyeY - myMaxY), 0);
+            float dz = Math.max(Math.max(back() - myEyeZ, myEyeZ - front()), 0);
+            return (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        // whether the sphere around the node's bounds reaches into the cone holding the view
+        boolean isVisible () {
+            float rx = (right() - left()) / 2;
+            float ry = (myMaxY - myMinY) / 2;
+            float rz = (front() - back()) / 2;
+            float vx = left() + rx - myEyeX;
+            float vy = myMinY + ry - myEyeY;
+            float vz = back() + rz - myEyeZ;
+            float along = vx * myLookX + vy * myLookY + vz * myLookZ;
+            float across = (float)Math.sqrt(Math.max(0, vx * vx + vy * vy + vz * vz - along * along));
+            return across * myConeCos - along * myConeSin <= (float)Math.sqrt(rx * rx + ry * ry + rz * rz);
+        }
+
+        private float left () {
+            return myLeft + column(0) * mySpacing;
+        }
+
+        private float right () {
+            return myLeft + column(TILE_SIZE) * mySpacing;
+        }
+
+        private float back () {
+            return myBack + row(0) * mySpacing;
+        }
+
+        private float front () {
+            return myBack + row(TILE_SIZE) * mySpacing;
+        }
+    }
+}
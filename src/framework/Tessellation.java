@@ -0,0 +1,124 @@
+package framework;
+
+import java.util.Arrays;
+
+
+/**
+ * The vertices approximating a curve as a polyline, together with the curve
+ * parameter of each vertex, packed into primitive arrays that can be drawn
+ * directly.
+ *
+ * The vertices of each segment are stored contiguously in order, so when
+ * segments change only the vertices from the first changed one onward need
+ * to be rebuilt.
+ *
+ * @see AdaptiveTessellator
+ */
+public class Tessellation {
+    private float[] myParameters = new float[64];
+    private float[] myPositions = new float[3 * 64];
+    // index of the first vertex of each segment, one extra entry for the final vertex
+    private int[] mySegmentStarts = new int[1];
+    private int myCount;
+    private int mySegments;
+
+
+    /**
+     * Create an empty tessellation.
+     */
+    public Tessellation () {
+    }
+
+    // a tessellation restored from vertices computed before
+    Tessellation (float[] parameters, float[] positions, int[] segmentStarts, int count, int segments) {
+        myParameters = parameters;
+        myPositions = positions;
+        mySegmentStarts = segmentStarts;
+        myCount = count;
+        mySegments = segments;
+    }
+
+    /**
+     * Returns the number of vertices.
+     */
+    public int size () {
+        return myCount;
+    }
+
+    /**
+     * Returns the number of curve segments covered.
+     */
+    public int numSegments () {
+        return mySegments;
+    }
+
+    /**
+     * Returns the curve parameter of each vertex; only the first size() are valid.
+     */
+    public float[] getParameters () {
+        return myParameters;
+    }
+
+    /**
+     * Returns each vertex as packed x, y, z triples; only the first size() are valid.
+     */
+    public float[] getPositions () {
+        return myPositions;
+    }
+
+    /**
+     * Returns the index of the first vertex of the given segment.
+     */
+    public int segmentStart (int segment) {
+        return mySegmentStarts[segment];
+    }
+
+    // drop every vertex from the given segment on, keeping room for the given number of segments
+    void truncate (int segment, int segments) {
+        if (mySegmentStarts.length < segments + 1) {
+            mySegmentStarts = Arrays.copyOf(mySegmentStarts, Math.max(segments + 1, 2 * mySegmentStarts.length));
+        }
+        segment = Math.max(0, Math.min(segment, mySegments));
+        myCount = mySegmentStarts[segment];
+        mySegments = segment;
+    }
+
+    // the start of each segment, for filling in many segments at once
+    int[] segmentStarts () {
+        return mySegmentStarts;
+    }
+
+    // make room for at least the given number of vertices
+    void reserve (int count) {
+        if (myParameters.length < count) {
+            int capacity = Math.max(count, 2 * myParameters.length);
+            myParameters = Arrays.copyOf(myParameters, capacity);
+            myPositions = Arrays.copyOf(myPositions, 3 * capacity);
+        }
+    }
+
+    // append the given segment, whose count vertices were written just past the end
+    void extend (int segment, int count) {
+        mySegmentStarts[segment] = myCount;
+        mySegments = segment + 1;
+        myCount += count;
+    }
+
+    // take the segments up to the given one, whose starts and vertices were filled in directly
+    void extendTo (int segments, int count) {
+        mySegments = segments;
+        myCount = count;
+    }
+
+    // mark the end of the last segment, after its final vertex has been added
+    void finish () {
+        mySegmentStarts[mySegments] = myCount - 1;
+    }
+
+    void add (float parameter, float[] position, int offset) {
+        reserve(myCount + 1);
+        myParameters[myCount] = parameter;
+        System.arraycopy(position, offset, myPositions, 3 * myCount, 3);
+        myCount++;
+    }
+}
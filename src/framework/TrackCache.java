@@ -0,0 +1,494 @@
+package framework;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * A directory of curves already built from track files, so a track that has
+ * not changed since the last run is not interpolated, measured, tessellated,
+ * and turned into a ribbon all over again.
+ *
+ * Entries are named by a key made from the SHA-256 of the track file's bytes
+ * and the parameters the curve was built with, so changing either one simply
+ * misses the cache.  Each entry is one file, memory mapped when it is read,
+ * holding a header followed by sections of little endian values, each
+ * starting on a multiple of 8 bytes:
+ *
+ *   0   the magic bytes "TRKC"
+ *   4   the format version, an int
+ *   8   the CRC-32 of every byte after the header, an int
+ *   12  the length of the key, an int, then the key itself
+ *
+ *   control points       count, then count x, y, z floats
+ *   interpolated points  count, then count x, y, z floats
+ *   arc lengths          segments, then segments + 1 cumulative doubles
+ *   frames               samples per segment, segments, closing twist, then x, y, z normal floats
+ *   tessellation         count, segments, then segments + 1 starts, count parameters, count x, y, z floats
+ *   ribbon               count, then 2 * count x, y, z floats
+ *
+ * Entries are written to a temporary file and renamed into place, so a run
+ * stopped part way never leaves half an entry, and an entry that does not
+ * validate is treated as missing.  A track file's hash is remembered with the
+ * file's size and modification time, so an unchanged file is not read again
+ * just to find its key.
+ */
+public class TrackCache {
+    public static final String DEFAULT_DIRECTORY = ".trackcache";
+    private static final byte[] MAGIC = { 'T', 'R', 'K', 'C' };
+    private static final int VERSION = 1;
+    private static final String ENTRY_EXTENSION = ".cache";
+    private static final String HASH_EXTENSION = ".hash";
+    // bytes hashed or written at a time
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private Path myDirectory;
+
+
+    /**
+     * Create a cache keeping its entries in the given directory, which is
+     * made when the first entry is stored.
+     */
+    public TrackCache (String directory) {
+        myDirectory = Paths.get(directory);
+    }
+
+    /**
+     * Returns the key of a curve built from the given track file with the
+     * given parameters, changing whenever the file's contents or any of the
+     * parameters do.
+     *
+     * @throws TrackException if the track file cannot be read
+     */
+    public String key (String trackFile, Object... parameters) {
+        StringBuilder description = new StringBuilder(fileHash(trackFile));
+        description.append(" version ").append(VERSION);
+        for (Object p : parameters) {
+            description.append(' ').append(p);
+        }
+        return hex(digest().digest(description.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the entry stored under the given key, or null if there is none
+     * or it does not validate.  The entry reads from the mapped file, so
+     * looking it up takes time only to check its bytes.
+     */
+    public Entry load (String key) {
+        Path file = myDirectory.resolve(key + ENTRY_EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            return Entry.read(mapped, key);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given curve's points and everything built from them under
+     * the given key, returning false if the entry could not be written.  The
+     * cache only saves time, so failing to write it is not an error.
+     */
+    public boolean store (String key, PointStore controlPoints, PointStore curvePoints, ArcLengthTable arcLengths,
+                          RotationMinimizingFrames frames, Tessellation tessellation, Ribbon ribbon) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(myDirectory);
+            temporary = Files.createTempFile(myDirectory, key, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                Output out = new Output(channel, headerSize(key));
+                out.putPoints(controlPoints);
+                out.putPoints(curvePoints);
+                int segments = arcLengths.numSegments();
+                out.putInts(segments, 0);
+                out.putDoubles(arcLengths.cumulativeLengths(), segments + 1);
+                int normals = (frames.numSegments() == 0) ? 0 : 3 * (frames.numSegments() * frames.getSamplesPerSegment() + 1);
+                out.putInts(frames.getSamplesPerSegment(), frames.numSegments());
+                out.putFloats(FloatBuffer.wrap(new float[] { frames.closingAngle() }));
+                out.putFloats(FloatBuffer.wrap(frames.normals(), 0, normals));
+                out.putInts(tessellation.size(), tessellation.numSegments());
+                out.putInts(tessellation.segmentStarts(), tessellation.numSegments() + 1);
+                out.putFloats(FloatBuffer.wrap(tessellation.getParameters(), 0, tessellation.size()));
+                out.putFloats(FloatBuffer.wrap(tessellation.getPositions(), 0, 3 * tessellation.size()));
+                out.putInts(ribbon.size(), 0);
+                out.putFloats(FloatBuffer.wrap(ribbon.vertices(), 0, 6 * ribbon.size()));
+                out.finish(key);
+            }
+            Files.move(temporary, myDirectory.resolve(key + ENTRY_EXTENSION),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                }
+                catch (IOException ignored) {
+                    // nothing more to do about a stray temporary file
+                }
+            }
+            return false;
+        }
+    }
+
+    // the SHA-256 of the file's bytes, reusing the one remembered for it if
+    // the file has the same size and modification time as when it was hashed
+    private String fileHash (String trackFile) {
+        Path file = Paths.get(trackFile);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String stamp = attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+            String name = hex(digest().digest(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)));
+            Path remembered = myDirectory.resolve(name + HASH_EXTENSION);
+            try {
+                List<String> lines = Files.readAllLines(remembered, StandardCharsets.UTF_8);
+                if (lines.size() == 2 && lines.get(0).equals(stamp)) {
+                    return lines.get(1);
+                }
+            }
+            catch (IOException e) {
+                // not remembered yet
+            }
+            String hash = contentHash(file);
+            try {
+                Files.createDirectories(myDirectory);
+                Path temporary = Files.createTempFile(myDirectory, name, ".tmp");
+                Files.write(temporary, (stamp + "\n" + hash + "\n").getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, remembered, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException e) {
+                // hashed again next time
+            }
+            return hash;
+        }
+        catch (IOException e) {
+            throw new TrackException(e, "Failed to read track file: %s", trackFile);
+        }
+    }
+
+    private static String contentHash (Path file) throws IOException {
+        MessageDigest digest = digest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            while (channel.read(chunk) >= 0) {
+                chunk.flip();
+                digest.update(chunk);
+                chunk.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest () {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex (byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    private static int headerSize (String key) {
+        return align(16 + key.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static int align (int position) {
+        return (position + 7) & ~7;
+    }
+
+
+    /**
+     * A curve and everything built from it, read from the cache.  Points are
+     * read in place from the mapped file; tables are copied out of it when
+     * asked for, since they change as the curve is extended.
+     */
+    public static class Entry {
+        private ByteBuffer myData;
+        // where each section's values start in myData
+        private int myControlPoints;
+        private int myControlCount;
+        private int myCurvePoints;
+        private int myCurveCount;
+        private int myArcLengths;
+        private int mySegments;
+        private int myFrameNormals;
+        private int mySamplesPerSegment;
+        private float myClosingAngle;
+        private int myStarts;
+        private int myParameters;
+        private int myPositions;
+        private int myTessellationCount;
+        private int myTessellationSegments;
+        private int myRibbonVertices;
+        private int myRibbonCount;
+
+
+        private Entry (ByteBuffer data) {
+            myData = data;
+        }
+
+        // the entry in the given mapped file, or null if it is not a whole entry for the given key
+        static Entry read (ByteBuffer mapped, String key) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int header = headerSize(key);
+            try {
+                for (int k = 0; k < MAGIC.length; k++) {
+                    if (mapped.get(k) != MAGIC[k]) {
+                        return null;
+                    }
+                }
+                if (mapped.getInt(4) != VERSION || mapped.getInt(12) != keyBytes.length) {
+                    return null;
+                }
+                for (int k = 0; k < keyBytes.length; k++) {
+                    if (mapped.get(16 + k) != keyBytes[k]) {
+                        return null;
+                    }
+                }
+                CRC32 crc = new CRC32();
+                crc.update(mapped.duplicate().position(header));
+                if ((int)crc.getValue() != mapped.getInt(8)) {
+                    return null;
+                }
+                Entry result = new Entry(mapped);
+                return result.readSections(header) ? result : null;
+            }
+            catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+                return null;
+            }
+        }
+
+        // find each section, checking they fit the file and agree with each other
+        private boolean readSections (int position) {
+            ByteBuffer d = myData;
+            myControlCount = d.getInt(position);
+            myControlPoints = position + 8;
+            position = skip(myControlPoints, 12L * myControlCount);
+            myCurveCount = d.getInt(position);
+            myCurvePoints = position + 8;
+            position = skip(myCurvePoints, 12L * myCurveCount);
+            mySegments = d.getInt(position);
+            myArcLengths = position + 8;
+            position = skip(myArcLengths, 8L * (mySegments + 1));
+            mySamplesPerSegment = d.getInt(position);
+            int frameSegments = d.getInt(position + 4);
+            myClosingAngle = d.getFloat(position + 8);
+            myFrameNormals = position + 16;
+            int normals = (frameSegments == 0) ? 0 : 3 * (frameSegments * mySamplesPerSegment + 1);
+            position = skip(myFrameNormals, 4L * normals);
+            myTessellationCount = d.getInt(position);
+            myTessellationSegments = d.getInt(position + 4);
+            myStarts = position + 8;
+            myParameters = skip(myStarts, 4L * (myTessellationSegments + 1));
+            myPositions = skip(myParameters, 4L * myTessellationCount);
+            position = skip(myPositions, 12L * myTessellationCount);
+            myRibbonCount = d.getInt(position);
+            myRibbonVertices = position + 8;
+            position = skip(myRibbonVertices, 24L * myRibbonCount);
+            int segments = Math.max(0, myCurveCount - 1);
+            return position == d.capacity() && myControlCount >= 0 && mySamplesPerSegment > 0 &&
+                   mySegments == segments && frameSegments == segments && myTessellationSegments == segments &&
+                   myRibbonCount == myTessellationCount;
+        }
+
+        // the aligned position after length bytes from position, checked against the file
+        private int skip (int position, long length) {
+            long end = position + length;
+            if (length < 0 || end > myData.capacity()) {
+                throw new IllegalArgumentException("section runs past the end of the entry");
+            }
+            return align((int)end);
+        }
+
+        /**
+         * Returns the control points the curve was built through.
+         */
+        public PointStore controlPoints () {
+            return new PointStore(floats(myControlPoints, 3 * myControlCount), myControlCount);
+        }
+
+        /**
+         * Returns the points interpolated between the control points.
+         */
+        public PointStore curvePoints () {
+            return new PointStore(floats(myCurvePoints, 3 * myCurveCount), myCurveCount);
+        }
+
+        /**
+         * Returns the arc length table of the given curve, which should be
+         * the one rebuilt from this entry's points.
+         */
+        public ArcLengthTable arcLengths (Curve curve) {
+            double[] cumulative = new double[mySegments + 1];
+            ByteBuffer data = myData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            data.position(myArcLengths);
+            data.asDoubleBuffer().get(cumulative);
+            return new ArcLengthTable(curve, cumulative, mySegments);
+        }
+
+        /**
+         * Returns the rotation minimizing frames along the given curve, which
+         * should be the one rebuilt from this entry's points.
+         */
+        public RotationMinimizingFrames frames (Curve curve) {
+            int normals = (mySegments == 0) ? 0 : 3 * (mySegments * mySamplesPerSegment + 1);
+            return new RotationMinimizingFrames(curve, mySamplesPerSegment, copy(myFrameNormals, normals),
+                                                mySegments, myClosingAngle);
+        }
+
+        /**
+         * Returns the curve's tessellation.
+         */
+        public Tessellation tessellation () {
+            int[] starts = new int[myTessellationSegments + 1];
+            ByteBuffer data = myData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            data.position(myStarts);
+            data.asIntBuffer().get(starts);
+            return new Tessellation(copy(myParameters, myTessellationCount), copy(myPositions, 3 * myTessellationCount),
+                                    starts, myTessellationCount, myTessellationSegments);
+        }
+
+        /**
+         * Gives the ribbon the vertices it had along the curve's tessellation.
+         */
+        public void restoreRibbon (Ribbon ribbon) {
+            ribbon.setVertices(copy(myRibbonVertices, 6 * myRibbonCount), myRibbonCount);
+        }
+
+        private FloatBuffer floats (int position, int count) {
+            ByteBuffer data = myData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            data.position(position);
+            FloatBuffer result = data.asFloatBuffer();
+            result.limit(count);
+            return result.asReadOnlyBuffer();
+        }
+
+        private float[] copy (int position, int count) {
+            float[] result = new float[count];
+            floats(position, count).get(result);
+            return result;
+        }
+    }
+
+
+    // writes an entry a chunk at a time, summing its bytes for the header
+    private static class Output {
+        private FileChannel myChannel;
+        private ByteBuffer myChunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private CRC32 myChecksum = new CRC32();
+        private long myPosition;
+
+        Output (FileChannel channel, int headerSize) throws IOException {
+            myChannel = channel;
+            myChannel.position(headerSize);
+            myPosition = headerSize;
+        }
+
+        void putInts (int first, int second) throws IOException {
+            room(8);
+            myChunk.putInt(first).putInt(second);
+            myPosition += 8;
+        }
+
+        void putInts (int[] values, int count) throws IOException {
+            for (int k = 0; k < count; k++) {
+                room(4);
+                myChunk.putInt(values[k]);
+            }
+            myPosition += 4L * count;
+            align();
+        }
+
+        void putDoubles (double[] values, int count) throws IOException {
+            for (int k = 0; k < count; k++) {
+                room(8);
+                myChunk.putDouble(values[k]);
+            }
+            myPosition += 8L * count;
+        }
+
+        void putFloats (FloatBuffer values) throws IOException {
+            int count = values.remaining();
+            for (int k = 0; k < count; k++) {
+                room(4);
+                myChunk.putFloat(values.get());
+            }
+            myPosition += 4L * count;
+            align();
+        }
+
+        void putPoints (PointStore points) throws IOException {
+            putInts(points.size(), 0);
+            putFloats(points.asFloatBuffer());
+        }
+
+        // write the rest of the values and then the header in front of them
+        void finish (String key) throws IOException {
+            flush();
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(headerSize(key)).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt((int)myChecksum.getValue()).putInt(keyBytes.length).put(keyBytes);
+            header.clear();
+            myChannel.position(0);
+            while (header.hasRemaining()) {
+                myChannel.write(header);
+            }
+        }
+
+        // pad with zeros to the next multiple of 8 bytes
+        private void align () throws IOException {
+            while (myPosition % 8 != 0) {
+                room(1);
+                myChunk.put((byte)0);
+                myPosition++;
+            }
+        }
+
+        private void room (int bytes) throws IOException {
+            if (myChunk.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush () throws IOException {
+            myChunk.flip();
+            myChecksum.update(myChunk.duplicate());
+            while (myChunk.hasRemaining()) {
+                myChannel.write(myChunk);
+            }
+            myChunk.clear();
+        }
+    }
+}
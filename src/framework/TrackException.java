@@ -0,0 +1,30 @@
+package framework;
+
+/**
+ * Represents an error when reading or writing a track file.
+ */
+public class TrackException extends RuntimeException {
+    // for serialization
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create an exception based on an issue in our code.
+     */
+    public TrackException (String message, Object... values) {
+        super(String.format(message, values));
+    }
+
+    /**
+     * Create an exception based on a caught exception with a different message.
+     */
+    public TrackException (Throwable cause, String message, Object... values) {
+        super(String.format(message, values), cause);
+    }
+
+    /**
+     * Create an exception based on a caught exception, with no additional message.
+     */
+    public TrackException (Throwable exception) {
+        super(exception);
+    }
+}
@@ -0,0 +1,245 @@
+package framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ * A track stored in the binary track format, opened by memory mapping it.
+ *
+ * The file is a 40 byte header followed by the control points as packed
+ * little endian x, y, z floats.  The header holds, all little endian:
+ *
+ *   0   the magic bytes "TRKB"
+ *   4   the format version, an int
+ *   8   the number of points, an int
+ *   12  the CRC-32 of the points' bytes, an int
+ *   16  the bounds of the points, min x, y, z then max x, y, z, as floats
+ *
+ * Opening only reads the header and maps the rest, so it takes the same
+ * time no matter how many points the track has; the points are read from
+ * the file as they are used.
+ */
+public class TrackFile {
+    public static final String EXTENSION = ".trk";
+    private static final byte[] MAGIC = { 'T', 'R', 'K', 'B' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    // most points a single mapping holds
+    private static final int MAX_POINTS = (Integer.MAX_VALUE - HEADER_SIZE) / 12;
+    // bytes written at a time
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private String myFileName;
+    private int mySize;
+    private int myChecksum;
+    private float[] myBounds = new float[6];
+    private ByteBuffer myData;
+
+
+    private TrackFile (String fileName, ByteBuffer mapped) {
+        myFileName = fileName;
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = 0; k < MAGIC.length; k++) {
+            if (mapped.get(k) != MAGIC[k]) {
+                throw new TrackException("Not a binary track file: %s", fileName);
+            }
+        }
+        int version = mapped.getInt(4);
+        if (version != VERSION) {
+            throw new TrackException("Unsupported binary track version %d in %s", version, fileName);
+        }
+        mySize = mapped.getInt(8);
+        myChecksum = mapped.getInt(12);
+        for (int k = 0; k < myBounds.length; k++) {
+            myBounds[k] = mapped.getFloat(16 + 4 * k);
+        }
+        if (mySize < 0 || mySize > MAX_POINTS || mapped.capacity() != HEADER_SIZE + 12L * mySize) {
+            throw new TrackException("Binary track file %s should be %d bytes for its %d points, not %d",
+                                     fileName, HEADER_SIZE + 12L * mySize, mySize, mapped.capacity());
+        }
+        mapped.position(HEADER_SIZE);
+        myData = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens the given binary track file by memory mapping it.
+     */
+    public static TrackFile open (String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new TrackException("Binary track file %s has an impossible size, %d bytes", fileName, size);
+            }
+            // the mapping stays valid after the channel is closed
+            return new TrackFile(fileName, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        catch (IOException e) {
+            throw new TrackException(e, "Failed to read binary track file: %s", fileName);
+        }
+    }
+
+    /**
+     * Returns true if the given file starts like a binary track file.
+     */
+    public static boolean isBinary (String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) {
+                    return false;
+                }
+            }
+            magic.flip();
+            return magic.equals(ByteBuffer.wrap(MAGIC));
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of points in the track.
+     */
+    public int size () {
+        return mySize;
+    }
+
+    /**
+     * Returns the bounds of the points, min x, y, z then max x, y, z, as
+     * recorded when the file was written.
+     */
+    public float[] getBounds () {
+        return myBounds.clone();
+    }
+
+    /**
+     * Returns a read only buffer over the points' packed coordinates,
+     * read straight from the file.
+     */
+    public FloatBuffer getPoints () {
+        return myData.asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the points as a store that reads them straight from the file
+     * until it is changed.
+     */
+    public PointStore toPointStore () {
+        return new PointStore(getPoints(), mySize);
+    }
+
+    /**
+     * Returns true if the points still have the checksum recorded when the
+     * file was written.  This reads every point, so is not done on opening.
+     */
+    public boolean checksumMatches () {
+        CRC32 crc = new CRC32();
+        crc.update(myData.duplicate());
+        return (int)crc.getValue() == myChecksum;
+    }
+
+    /**
+     * Writes the given points to a binary track file.
+     */
+    public static void write (String fileName, PointStore points) {
+        int size = points.size();
+        if (size > MAX_POINTS) {
+            throw new TrackException("Too many points for a binary track file: %d", size);
+        }
+        float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+                           -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        CRC32 crc = new CRC32();
+        float[] point = new float[3];
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+            for (int i = 0; i < size; i++) {
+                points.get(i, point, 0);
+                for (int dim = 0; dim < 3; dim++) {
+                    chunk.putFloat(point[dim]);
+                    bounds[dim] = Math.min(bounds[dim], point[dim]);
+                    bounds[dim + 3] = Math.max(bounds[dim + 3], point[dim]);
+                }
+                if (chunk.remaining() < 12 || i == size - 1) {
+                    chunk.flip();
+                    crc.update(chunk.duplicate());
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
+            }
+            if (size == 0) {
+                bounds = new float[6];
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt(size).putInt((int)crc.getValue());
+            for (float b : bounds) {
+                header.putFloat(b);
+            }
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+        }
+        catch (IOException e) {
+            throw new TrackException(e, "Failed to write binary track file: %s", fileName);
+        }
+    }
+
+    /**
+     * Returns the control points in the given track file, read in place
+     * from a binary track file or parsed from a text one.
+     */
+    public static PointStore readPoints (String fileName) {
+        return readPoints(fileName, null);
+    }
+
+    /**
+     * Returns the control points in the given track file like readPoints,
+     * reporting progress through a text file to the given listener (if it
+     * is not null).  Binary files open at once, so report no progress.
+     */
+    public static PointStore readPoints (String fileName, TrackLoader.Progress progress) {
+        if (isBinary(fileName)) {
+            return open(fileName).toPointStore();
+        }
+        return TrackLoader.load(fileName, progress);
+    }
+
+    /**
+     * Converts the given text track file, one point of three numbers per
+     * line, to a binary track file, returning the number of points.
+     */
+    public static int convert (String textFileName, String binaryFileName) {
+        PointStore points = TrackLoader.load(textFileName);
+        write(binaryFileName, points);
+        return points.size();
+    }
+
+    /**
+     * Returns the given file's name with its extension replaced by the
+     * binary track extension.
+     */
+    public static String binaryName (String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        int separator = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        return ((dot > separator) ? fileName.substring(0, dot) : fileName) + EXTENSION;
+    }
+
+    @Override
+    public String toString () {
+        return "Track " + myFileName + " (" + mySize + " points)";
+    }
+
+    private static void writeFully (FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
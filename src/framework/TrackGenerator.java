@@ -0,0 +1,244 @@
+package framework;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Generates random tracks: walks of control points one step length apart,
+ * each step heading in a direction picked evenly from the half of all
+ * directions that do not turn back on the step before.
+ *
+ * Directions are sampled straight from that half, never rejected and tried
+ * again.  A step that would leave the bounds bounces off the wall instead,
+ * mirrored like a ball, so every step is exactly one step long and the walk
+ * heads on from the mirrored step.  Those bounces are the only places the
+ * walk turns back by more than a right angle.  A track that starts outside
+ * the bounds widens them just enough to hold its start.
+ *
+ * A generator is seeded, so the same seed gives the same points, whether
+ * they are generated all at once or a few at a time.  Each CHUNK_SIZE
+ * points of the walk use a stream of random numbers of their own, seeded
+ * from the generator's seed and the chunk's index, so the directions of the
+ * chunks are sampled in parallel, and the same however many threads there
+ * are; the walk through them is then taken in order.
+ *
+ * A generator is not safe to use from more than one thread at once.
+ */
+public class TrackGenerator {
+    public static final long DEFAULT_SEED = 1;
+    public static final float DEFAULT_STEP = 30;
+    public static final float DEFAULT_BOUNDS = 490;
+    // points generated from each stream of random numbers, and by each task
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private long mySeed;
+    private float myStep;
+    // how far from the origin each coordinate may go, widened to hold the start of a track outside the bounds
+    private float[] myHalfSize;
+    // points generated so far, and the stream of the chunk the next one is in
+    private long myNext;
+    private SplittableRandom myRandom;
+    private long myRandomChunk = -1;
+    // the call in progress: points [myChunkStarts[j] .. myChunkStarts[j+1]) are chunk j
+    private float[] myResult;
+    private int myOffset;
+    private int[] myChunkStarts;
+    private SplittableRandom[] myRandoms;
+
+
+    /**
+     * Create a generator taking steps of the default length within the
+     * default bounds, seeded with the given seed.
+     */
+    public TrackGenerator (long seed) {
+        this(seed, DEFAULT_STEP, DEFAULT_BOUNDS);
+    }
+
+    /**
+     * Create a generator taking steps of the given length, keeping every
+     * coordinate within [-bounds .. bounds], seeded with the given seed.
+     */
+    public TrackGenerator (long seed, float step, float bounds) {
+        if (!(step > 0) || !(bounds > 0)) {
+            throw new IllegalArgumentException("step " + step + " and bounds " + bounds + " should be positive");
+        }
+        mySeed = seed;
+        myStep = step;
+        myHalfSize = new float[] { bounds, bounds, bounds };
+    }
+
+    /**
+     * Appends count points to the given track, continuing the walk from its
+     * last point and the direction it was heading, or from the origin if it
+     * is empty.
+     */
+    public void generate (PointStore points, int count) {
+        if (count <= 0) {
+            return;
+        }
+        // only the last two points are read, so a store read in place from a file is not copied
+        int size = points.size();
+        float[] ends = new float[6];
+        if (size >= 2) {
+            points.get(size - 2, ends, 0);
+        }
+        if (size >= 1) {
+            points.get(size - 1, ends, 3);
+        }
+        float[] walk = new float[3 * count];
+        generate(ends, (size >= 2) ? 0 : -1, 3, walk, 0, count);
+        points.addAll(walk, 0, count);
+    }
+
+    /**
+     * Writes count points continuing the walk from the point at index last
+     * of the given packed coordinates into result starting at offset.  The
+     * walk heads on from the point at index previous, or in any direction if
+     * previous is negative.
+     */
+    public void generate (float[] points, int previous, int last, float[] result, int offset, int count) {
+        if (count <= 0) {
+            return;
+        }
+        findChunks(count);
+        myResult = result;
+        myOffset = offset;
+        int chunks = myChunkStarts.length - 1;
+        if (chunks == 1) {
+            sampleDirections(0);
+        }
+        else {
+            new ChunkTask(0, chunks).invoke();
+        }
+        walk(points, previous, last, count);
+        myRandom = myRandoms[chunks - 1];
+        myRandomChunk = (myNext + count - 1) / CHUNK_SIZE;
+        myNext += count;
+        myResult = null;
+        myRandoms = null;
+    }
+
+    // split the next count points at the chunk boundaries and find each chunk's stream
+    private void findChunks (int count) {
+        long firstChunk = myNext / CHUNK_SIZE;
+        int chunks = (int)((myNext + count - 1) / CHUNK_SIZE - firstChunk) + 1;
+        myChunkStarts = new int[chunks + 1];
+        myRandoms = new SplittableRandom[chunks];
+        for (int j = 0; j < chunks; j++) {
+            myChunkStarts[j] = (j == 0) ? 0 : (int)((firstChunk + j) * CHUNK_SIZE - myNext);
+            myRandoms[j] = (j == 0 && firstChunk == myRandomChunk) ? myRandom : chunkRandom(firstChunk + j);
+        }
+        myChunkStarts[chunks] = count;
+    }
+
+    // the stream of the given chunk, seeded by a mix of the seed and the
+    // chunk so the chunks' streams are unrelated rather than overlapping
+    private SplittableRandom chunkRandom (long chunk) {
+        return new SplittableRandom(new SplittableRandom(mySeed + chunk).nextLong());
+    }
+
+    // unit directions of a chunk's steps, even over the sphere, kept in the
+    // result until the points are written over them
+    private void sampleDirections (int chunk) {
+        SplittableRandom random = myRandoms[chunk];
+        float[] r = myResult;
+        for (int i = myChunkStarts[chunk]; i < myChunkStarts[chunk + 1]; i++) {
+            // z is even over [-1 .. 1] and the angle around z over the circle
+            double z = 2 * random.nextDouble() - 1;
+            double angle = 2 * Math.PI * random.nextDouble();
+            double radius = Math.sqrt(1 - z * z);
+            int k = myOffset + 3 * i;
+            r[k] = (float)(radius * Math.cos(angle));
+            r[k + 1] = (float)(radius * Math.sin(angle));
+            r[k + 2] = (float)z;
+        }
+    }
+
+    // takes the steps in order, each turned into the half facing the step
+    // before and bounced off any wall it would cross; the step before is
+    // found from the points themselves, as the next call will find it
+    private void walk (float[] points, int previous, int last, int count) {
+        float[] r = myResult;
+        float[] half = myHalfSize;
+        float px = points[last], py = points[last + 1], pz = points[last + 2];
+        half[0] = Math.max(half[0], Math.abs(px));
+        half[1] = Math.max(half[1], Math.abs(py));
+        half[2] = Math.max(half[2], Math.abs(pz));
+        float hx = 0, hy = 0, hz = 0;
+        if (previous >= 0) {
+            hx = px - points[previous];
+            hy = py - points[previous + 1];
+            hz = pz - points[previous + 2];
+        }
+        for (int i = 0; i < count; i++) {
+            int k = myOffset + 3 * i;
+            float dx = r[k], dy = r[k + 1], dz = r[k + 2];
+            if (dx * hx + dy * hy + dz * hz < 0) {
+                dx = -dx;
+                dy = -dy;
+                dz = -dz;
+            }
+            float x = bounce(px, dx, half[0]);
+            float y = bounce(py, dy, half[1]);
+            float z = bounce(pz, dz, half[2]);
+            r[k] = x;
+            r[k + 1] = y;
+            r[k + 2] = z;
+            hx = x - px;
+            hy = y - py;
+            hz = z - pz;
+            px = x;
+            py = y;
+            pz = z;
+        }
+    }
+
+    // the coordinate a step on from u, mirrored back off the wall it would cross
+    private float bounce (float u, float direction, float half) {
+        float v = u + myStep * direction;
+        if (v > half || v < -half) {
+            v = u - myStep * direction;
+            // only bounds narrower than a step can leave it outside still
+            if (v > half || v < -half) {
+                v = fold(v, half);
+            }
+        }
+        return v;
+    }
+
+    // the coordinate reflected back and forth off the walls at -half and half until it lands between them
+    private static float fold (double u, double half) {
+        double period = 4 * half;
+        double v = (u + half) % period;
+        if (v < 0) {
+            v += period;
+        }
+        if (v > 2 * half) {
+            v = period - v;
+        }
+        return (float)(v - half);
+    }
+
+    // samples the directions of a range of chunks, splitting it across threads
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int myFirst;
+        private final int myCount;
+
+        ChunkTask (int first, int count) {
+            myFirst = first;
+            myCount = count;
+        }
+
+        @Override
+        protected void compute () {
+            if (myCount == 1) {
+                sampleDirections(myFirst);
+                return;
+            }
+            int half = myCount / 2;
+            invokeAll(new ChunkTask(myFirst, half), new ChunkTask(myFirst + half, myCount - half));
+        }
+    }
+}
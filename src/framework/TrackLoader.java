@@ -0,0 +1,211 @@
+package framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Loads text track files too large to parse quickly on one thread.
+ *
+ * The file is split into chunks of about CHUNK_SIZE bytes, each ending at
+ * the end of a line, and the chunks are memory mapped and parsed in
+ * parallel into points of their own, which are then joined in order.  A
+ * Progress can be given to hear how much of the file has been parsed, so
+ * the file can be loaded in the background while the UI shows progress.
+ */
+public class TrackLoader {
+    /**
+     * Hears how much of a file has been loaded.  Chunks are parsed on
+     * several threads at once, so this is too, and should be quick.
+     */
+    public interface Progress {
+        void loaded (long bytesLoaded, long totalBytes);
+    }
+
+    // bytes parsed by each task
+    private static final int CHUNK_SIZE = 16 << 20;
+    // bytes read at a time while looking for the end of a line
+    private static final int SCAN_SIZE = 4096;
+    // a generous guess at the bytes per point, to size each chunk's points
+    private static final int BYTES_PER_POINT = 24;
+
+    private String myFileName;
+    private FileChannel myChannel;
+    private Progress myProgress;
+    private long mySize;
+    private AtomicLong myLoaded = new AtomicLong();
+    // chunk i is bytes [myStarts[i] .. myStarts[i+1])
+    private long[] myStarts;
+    private PointStore[] myPoints;
+    private int[] myLines;
+    private boolean[] myFailed;
+
+
+    private TrackLoader (String fileName, FileChannel channel, Progress progress) throws IOException {
+        myFileName = fileName;
+        myChannel = channel;
+        myProgress = progress;
+        mySize = channel.size();
+    }
+
+    /**
+     * Returns the control points listed in the given text track file.
+     */
+    public static PointStore load (String fileName) {
+        return load(fileName, null);
+    }
+
+    /**
+     * Returns the control points listed in the given text track file,
+     * reporting progress to the given listener (if it is not null).
+     *
+     * @throws TrackException if the file cannot be read or is malformed
+     */
+    public static PointStore load (String fileName, Progress progress) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return new TrackLoader(fileName, channel, progress).load();
+        }
+        catch (IOException e) {
+            throw new TrackException(e, "Failed to read track file: %s", fileName);
+        }
+    }
+
+    private PointStore load () throws IOException {
+        findChunks();
+        int chunks = myStarts.length - 1;
+        myPoints = new PointStore[chunks];
+        myLines = new int[chunks];
+        myFailed = new boolean[chunks];
+        if (chunks == 1) {
+            parseChunk(0);
+        }
+        else if (chunks > 1) {
+            new ChunkTask(0, chunks).invoke();
+        }
+        // report the first error, numbering its line within the whole file
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            if (myFailed[i]) {
+                TrackParser parser = new TrackParser(myFileName);
+                parser.setLine(line);
+                parser.parseLines(map(i), 0, chunkLength(i), new PointStore());
+                throw new TrackException("Failed to parse track file: %s", myFileName);
+            }
+            line += myLines[i];
+        }
+        return join();
+    }
+
+    // split the file into chunks that each end at the end of a line
+    private void findChunks () throws IOException {
+        int most = (int)(mySize / CHUNK_SIZE) + 1;
+        long[] starts = new long[most + 1];
+        int count = 0;
+        long start = 0;
+        while (start < mySize) {
+            starts[count++] = start;
+            start = (mySize - start <= CHUNK_SIZE) ? mySize : lineEndAfter(start + CHUNK_SIZE);
+        }
+        starts[count] = mySize;
+        myStarts = new long[count + 1];
+        System.arraycopy(starts, 0, myStarts, 0, count + 1);
+    }
+
+    // the position just after the first newline at or after position, or the end of the file
+    private long lineEndAfter (long position) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        while (position < mySize) {
+            scan.clear();
+            int read = myChannel.read(scan, position);
+            if (read < 0) {
+                break;
+            }
+            for (int k = 0; k < read; k++) {
+                if (scan.get(k) == '\n') {
+                    return position + k + 1;
+                }
+            }
+            position += read;
+        }
+        return mySize;
+    }
+
+    private int chunkLength (int chunk) {
+        return (int)(myStarts[chunk + 1] - myStarts[chunk]);
+    }
+
+    private ByteBuffer map (int chunk) {
+        try {
+            return myChannel.map(FileChannel.MapMode.READ_ONLY, myStarts[chunk], chunkLength(chunk));
+        }
+        catch (IOException e) {
+            throw new TrackException(e, "Failed to read track file: %s", myFileName);
+        }
+    }
+
+    // parse one chunk into its own points, numbering its lines from 1
+    private void parseChunk (int chunk) {
+        int length = chunkLength(chunk);
+        PointStore points = new PointStore(length / BYTES_PER_POINT + 1);
+        TrackParser parser = new TrackParser(myFileName);
+        try {
+            parser.parseLines(map(chunk), 0, length, points);
+            myPoints[chunk] = points;
+            myLines[chunk] = parser.getLine() - 1;
+        }
+        catch (TrackException e) {
+            // reported once every chunk before it is parsed and its line is known
+            myFailed[chunk] = true;
+        }
+        long loaded = myLoaded.addAndGet(length);
+        if (myProgress != null) {
+            myProgress.loaded(loaded, mySize);
+        }
+    }
+
+    // the chunks' points one after another
+    private PointStore join () {
+        long sum = 0;
+        for (PointStore points : myPoints) {
+            sum += points.size();
+        }
+        if (3 * sum > Integer.MAX_VALUE - 8) {
+            throw new TrackException("Too many points in track file %s: %d", myFileName, sum);
+        }
+        int total = (int)sum;
+        float[] coordinates = new float[3 * total];
+        int k = 0;
+        for (PointStore points : myPoints) {
+            System.arraycopy(points.coordinates(), 0, coordinates, k, 3 * points.size());
+            k += 3 * points.size();
+        }
+        return new PointStore(coordinates, total);
+    }
+
+    // parses a range of chunks, splitting it across threads
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int myFirst;
+        private final int myCount;
+
+        ChunkTask (int first, int count) {
+            myFirst = first;
+            myCount = count;
+        }
+
+        @Override
+        protected void compute () {
+            if (myCount == 1) {
+                parseChunk(myFirst);
+                return;
+            }
+            int half = myCount / 2;
+            invokeAll(new ChunkTask(myFirst, half), new ChunkTask(myFirst + half, myCount - half));
+        }
+    }
+}
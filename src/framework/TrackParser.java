@@ -0,0 +1,212 @@
+package framework;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Reads text track files: one control point per line, given as three
+ * numbers separated by spaces or tabs.  Blank lines are skipped and # starts
+ * a comment that runs to the end of its line.
+ *
+ * The numbers are parsed straight from the file's bytes, so no Strings or
+ * regular expressions are made per line.  Errors are reported as
+ * TrackExceptions naming the line.
+ */
+public class TrackParser {
+    // the exact powers of ten as floats and doubles
+    private static final float[] FLOAT_POWERS = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+    private static final double[] DOUBLE_POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // the most significant digits gathered exactly into a long
+    private static final int MAX_DIGITS = 18;
+
+    private String myFileName;
+    private int myLine;
+    // where the number just parsed ended
+    private int myEnd;
+
+
+    /**
+     * Create a parser whose errors name the given file.
+     */
+    public TrackParser (String fileName) {
+        myFileName = fileName;
+        myLine = 1;
+    }
+
+    /**
+     * Parses the lines in bytes [from .. to), adding their points to result.
+     * The range should start at the beginning of a line, and line numbers
+     * continue from those parsed before.
+     */
+    public void parseLines (ByteBuffer bytes, int from, int to, PointStore result) {
+        int k = from;
+        while (k < to) {
+            k = skipSpaces(bytes, k, to);
+            if (k < to && !isLineEnd(bytes.get(k))) {
+                float x = parseNumber(bytes, k, to);
+                float y = parseNumber(bytes, skipSpaces(bytes, myEnd, to), to);
+                float z = parseNumber(bytes, skipSpaces(bytes, myEnd, to), to);
+                k = skipSpaces(bytes, myEnd, to);
+                if (k < to && !isLineEnd(bytes.get(k))) {
+                    throw error("expected the end of the line after 3 coordinates");
+                }
+                result.add(x, y, z);
+            }
+            // move past the rest of the line, including any comment
+            while (k < to && bytes.get(k) != '\n') {
+                k++;
+            }
+            if (k < to) {
+                k++;
+                myLine++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the line being parsed, starting from 1.
+     */
+    public int getLine () {
+        return myLine;
+    }
+
+    /**
+     * Sets the number of the line parsing starts on, for parsing part of a file.
+     */
+    public void setLine (int line) {
+        myLine = line;
+    }
+
+    // parse the decimal number starting at k, leaving myEnd after it
+    private float parseNumber (ByteBuffer bytes, int k, int to) {
+        int start = k;
+        boolean negative = false;
+        if (k < to && (bytes.get(k) == '-' || bytes.get(k) == '+')) {
+            negative = bytes.get(k) == '-';
+            k++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean truncated = false;
+        // digits before the point, then after it
+        for (boolean fraction = false; k < to; k++) {
+            byte b = bytes.get(k);
+            if (b >= '0' && b <= '9') {
+                anyDigits = true;
+                if (digits < MAX_DIGITS) {
+                    if (mantissa != 0 || b != '0') {
+                        digits++;
+                    }
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                }
+                else {
+                    truncated |= b != '0';
+                    if (!fraction) {
+                        exponent++;
+                    }
+                }
+            }
+            else if (b == '.' && !fraction) {
+                fraction = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (!anyDigits) {
+            if (k >= to || isLineEnd(bytes.get(k))) {
+                throw error("expected 3 coordinates");
+            }
+            throw error("expected a number, not \"" + word(bytes, start, to) + "\"");
+        }
+        if (k < to && (bytes.get(k) == 'e' || bytes.get(k) == 'E')) {
+            k++;
+            boolean negativeExponent = false;
+            if (k < to && (bytes.get(k) == '-' || bytes.get(k) == '+')) {
+                negativeExponent = bytes.get(k) == '-';
+                k++;
+            }
+            int written = 0;
+            boolean anyExponentDigits = false;
+            for (; k < to && bytes.get(k) >= '0' && bytes.get(k) <= '9'; k++) {
+                anyExponentDigits = true;
+                written = Math.min(10 * written + (bytes.get(k) - '0'), 1000);
+            }
+            if (!anyExponentDigits) {
+                throw error("expected a number, not \"" + word(bytes, start, to) + "\"");
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        if (k < to && !isSpace(bytes.get(k)) && !isLineEnd(bytes.get(k))) {
+            throw error("expected a number, not \"" + word(bytes, start, to) + "\"");
+        }
+        myEnd = k;
+        if (truncated) {
+            // too many digits to gather exactly, which is rare
+            return Float.parseFloat(word(bytes, start, k));
+        }
+        float value = toFloat(mantissa, exponent, bytes, start, k);
+        return negative ? -value : value;
+    }
+
+    // the float nearest mantissa * 10^exponent, rounded just as Float.parseFloat would
+    private float toFloat (long mantissa, int exponent, ByteBuffer bytes, int start, int end) {
+        if (mantissa == 0) {
+            return 0;
+        }
+        // both exact, so the one rounding is correct
+        if (mantissa < (1 << 24) && Math.abs(exponent) < FLOAT_POWERS.length) {
+            return (exponent < 0) ? mantissa / FLOAT_POWERS[-exponent] : mantissa * FLOAT_POWERS[exponent];
+        }
+        if (mantissa < (1L << 53) && Math.abs(exponent) < DOUBLE_POWERS.length) {
+            double value = (exponent < 0) ? mantissa / DOUBLE_POWERS[-exponent] : mantissa * DOUBLE_POWERS[exponent];
+            // rounding the double again to a float is only wrong when it lands halfway between two floats
+            if ((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) != 0x10000000L) {
+                return (float)value;
+            }
+        }
+        // rare: huge exponents, or a halfway case
+        return Math.abs(Float.parseFloat(word(bytes, start, end)));
+    }
+
+    // the characters from start up to the next space or end of line
+    private String word (ByteBuffer bytes, int start, int to) {
+        int end = start;
+        while (end < to && !isSpace(bytes.get(end)) && !isLineEnd(bytes.get(end))) {
+            end++;
+        }
+        byte[] text = new byte[end - start];
+        for (int k = 0; k < text.length; k++) {
+            text[k] = bytes.get(start + k);
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private int skipSpaces (ByteBuffer bytes, int k, int to) {
+        while (k < to && isSpace(bytes.get(k))) {
+            k++;
+        }
+        return k;
+    }
+
+    private static boolean isSpace (byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isLineEnd (byte b) {
+        return b == '\n' || b == '#';
+    }
+
+    private TrackException error (String problem) {
+        return new TrackException("Malformed track file %s (on line %d): %s", myFileName, myLine, problem);
+    }
+}